@@ -0,0 +1,105 @@
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks every public method of AdvancedManipulations, with blur and
+ * localContrast at several radii, gaussianBlur at several sigmas and reducePalette at
+ * several palette sizes, with each PaletteStrategy.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms8g", "-Xmx8g"})
+public class AdvancedBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Radius {
+        @Param({"1", "4", "16", "64"})
+        public int radius;
+    }
+
+    @State(Scope.Benchmark)
+    public static class Sigma {
+        @Param({"1", "4", "16"})
+        public double sigma;
+    }
+
+    @State(Scope.Benchmark)
+    public static class Colors {
+        @Param({"16", "512"})
+        public int colors;
+
+        @Param({"FREQUENCY", "OCTREE", "MEDIAN_CUT"})
+        public PaletteStrategy strategy;
+    }
+
+    @Benchmark
+    public PixelPicture adjustContrast(Images img, Pixels count) {
+        count.pixels += img.pixels;
+        return AdvancedManipulations.adjustContrast(img.pic, 1.5);
+    }
+
+    @Benchmark
+    public PixelPicture localContrast(Images img, Radius r, Pixels count) {
+        count.pixels += img.pixels;
+        // a picture of its own, so that every call builds the summed-area
+        // table rather than finding it kept with img.pic
+        PixelPicture pic = PixelPicture.wrap(img.pic.getWidth(), img.pic.getHeight(),
+                                             img.pic.data());
+        return AdvancedManipulations.localContrast(pic, r.radius, 1.5);
+    }
+
+    @Benchmark
+    public PixelPicture reducePalette(Images img, Colors colors, Pixels count) {
+        count.pixels += img.pixels;
+        return AdvancedManipulations.reducePalette(img.pic, colors.colors, colors.strategy);
+    }
+
+    @Benchmark
+    public PixelPicture blur(Images img, Radius r, Pixels count) {
+        count.pixels += img.pixels;
+        return AdvancedManipulations.blur(img.pic, r.radius);
+    }
+
+    @Benchmark
+    public PixelPicture gaussianBlur(Images img, Sigma s, Pixels count) {
+        count.pixels += img.pixels;
+        return AdvancedManipulations.gaussianBlur(img.pic, s.sigma);
+    }
+
+    @Benchmark
+    public PixelPicture emboss(Images img, Pixels count) {
+        count.pixels += img.pixels;
+        return AdvancedManipulations.emboss(img.pic);
+    }
+
+    @Benchmark
+    public PixelPicture sharpen(Images img, Pixels count) {
+        count.pixels += img.pixels;
+        return AdvancedManipulations.sharpen(img.pic);
+    }
+
+    @Benchmark
+    public PixelPicture detectEdges(Images img, Pixels count) {
+        count.pixels += img.pixels;
+        return AdvancedManipulations.detectEdges(img.pic);
+    }
+
+    @Benchmark
+    public PixelPicture flood(Images img, Pixels count) {
+        count.pixels += img.pixels;
+        return AdvancedManipulations.flood(img.pic, Pixel.RED,
+                img.pic.getWidth() / 2, img.pic.getHeight() / 2);
+    }
+}
@@ -0,0 +1,56 @@
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks every preset in Effects.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms8g", "-Xmx8g"})
+public class EffectsBenchmark {
+
+    @Benchmark
+    public PixelPicture eighteenNinety(Images img, Pixels count) {
+        count.pixels += img.pixels;
+        return Effects.eighteenNinety(img.pic);
+    }
+
+    @Benchmark
+    public PixelPicture pinHole(Images img, Pixels count) {
+        count.pixels += img.pixels;
+        return Images.drawn(Effects.pinHole(img.pic));
+    }
+
+    @Benchmark
+    public PixelPicture zombie(Images img, Pixels count) {
+        count.pixels += img.pixels;
+        return Images.drawn(Effects.zombie(img.pic));
+    }
+
+    @Benchmark
+    public PixelPicture plastic(Images img, Pixels count) {
+        count.pixels += img.pixels;
+        return Effects.plastic(img.pic);
+    }
+
+    @Benchmark
+    public PixelPicture peaches(Images img, Pixels count) {
+        count.pixels += img.pixels;
+        return Effects.peaches(img.pic);
+    }
+
+    @Benchmark
+    public PixelPicture custom(Images img, Pixels count) {
+        count.pixels += img.pixels;
+        return Effects.custom(img.pic);
+    }
+}
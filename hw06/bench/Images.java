@@ -0,0 +1,60 @@
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The pictures the benchmarks run on, from a thumbnail up to 50 megapixels.
+ *
+ * The pictures are synthetic but photo-like: smooth gradients with a little
+ * noise, quantized so that colors repeat the way they do in real photos
+ * (which matters for reducePalette). They are generated from a fixed seed,
+ * so every run sees the same pixels.
+ */
+@State(Scope.Benchmark)
+public class Images {
+
+    @Param({"160x120", "1024x768", "4000x3000", "8660x5773"})
+    public String size;
+
+    public PixelPicture pic;
+    public PixelPicture other;
+    public int pixels;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        String[] wh = size.split("x");
+        int w = Integer.parseInt(wh[0]);
+        int h = Integer.parseInt(wh[1]);
+        pic = generate(w, h, 120);
+        other = generate(w, h, 121);
+        pixels = w * h;
+    }
+
+    /**
+     * Draws the pixels of a picture that may still be a view (see
+     * PictureView), so that a benchmark returning it times the whole
+     * operation rather than the making of the view.
+     */
+    static PixelPicture drawn(PixelPicture p) {
+        p.materialize();
+        return p;
+    }
+
+    static PixelPicture generate(int w, int h, long seed) {
+        Random rnd = new Random(seed);
+        int[] rgb = new int[w * h];
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) {
+                int r = 255 * x / w + rnd.nextInt(9) - 4;
+                int g = 255 * y / h + rnd.nextInt(9) - 4;
+                int b = 255 * (x + y) / (w + h) + rnd.nextInt(9) - 4;
+                rgb[y * w + x] = Pixel.rgb(r & ~3, g & ~3, b & ~3);
+            }
+        }
+        return new PixelPicture(w, h, rgb);
+    }
+}
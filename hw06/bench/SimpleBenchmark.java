@@ -0,0 +1,99 @@
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks every public method of SimpleManipulations.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms8g", "-Xmx8g"})
+public class SimpleBenchmark {
+
+    @Benchmark
+    public PixelPicture rotateCW(Images img, Pixels count) {
+        count.pixels += img.pixels;
+        return Images.drawn(SimpleManipulations.rotateCW(img.pic));
+    }
+
+    @Benchmark
+    public PixelPicture rotateCCW(Images img, Pixels count) {
+        count.pixels += img.pixels;
+        return Images.drawn(SimpleManipulations.rotateCCW(img.pic));
+    }
+
+    @Benchmark
+    public PixelPicture mirrorHorizontal(Images img, Pixels count) {
+        count.pixels += img.pixels;
+        return Images.drawn(SimpleManipulations.mirrorHorizontal(img.pic));
+    }
+
+    @Benchmark
+    public PixelPicture mirrorVertical(Images img, Pixels count) {
+        count.pixels += img.pixels;
+        return Images.drawn(SimpleManipulations.mirrorVertical(img.pic));
+    }
+
+    @Benchmark
+    public PixelPicture border(Images img, Pixels count) {
+        count.pixels += img.pixels;
+        return Images.drawn(SimpleManipulations.border(img.pic, 10, Pixel.BLACK));
+    }
+
+    @Benchmark
+    public PixelPicture crop(Images img, Pixels count) {
+        int w = img.pic.getWidth();
+        int h = img.pic.getHeight();
+        count.pixels += (w / 2) * (h / 2);
+        return Images.drawn(SimpleManipulations.crop(img.pic, w / 4, h / 4, w / 2, h / 2));
+    }
+
+    @Benchmark
+    public PixelPicture grayScaleLuminosity(Images img, Pixels count) {
+        count.pixels += img.pixels;
+        return SimpleManipulations.grayScaleLuminosity(img.pic);
+    }
+
+    @Benchmark
+    public PixelPicture invertColors(Images img, Pixels count) {
+        count.pixels += img.pixels;
+        return SimpleManipulations.invertColors(img.pic);
+    }
+
+    @Benchmark
+    public PixelPicture grayScaleAverage(Images img, Pixels count) {
+        count.pixels += img.pixels;
+        return SimpleManipulations.grayScaleAverage(img.pic);
+    }
+
+    @Benchmark
+    public PixelPicture scaleColors(Images img, Pixels count) {
+        count.pixels += img.pixels;
+        return SimpleManipulations.scaleColors(img.pic, 1.0, 0.95, 0.75);
+    }
+
+    @Benchmark
+    public int weightedAverage() {
+        return SimpleManipulations.weightedAverage(0.3, 200, 17);
+    }
+
+    @Benchmark
+    public PixelPicture alphaBlend(Images img, Pixels count) {
+        count.pixels += img.pixels;
+        return SimpleManipulations.alphaBlend(0.5, img.pic, img.other);
+    }
+
+    @Benchmark
+    public PixelPicture vignette(Images img, Pixels count) {
+        count.pixels += img.pixels;
+        return SimpleManipulations.vignette(img.pic);
+    }
+}
@@ -1,5 +1,12 @@
+import java.util.Arrays;
+import java.util.BitSet;
+
 public class AdvancedManipulations {
 
+    // Size of the per-tile table of already-mapped colors in reducePalette
+    private static final int MEMO_BITS = 12;
+    private static final int MEMO_SIZE = 1 << MEMO_BITS;
+
     /**
      * Change the contrast of a picture.
      *
@@ -26,57 +33,88 @@ public class AdvancedManipulations {
      */
     public static PixelPicture adjustContrast(
             PixelPicture pic, double multiplier) {
-        
-    	int h = pic.getHeight();
-    	int w = pic.getWidth();
-    	
-    	
-    	Pixel[][] bmp = pic.getBitmap();
-    	// Create a variable to store the average color values 
-    	int avg_color = 0;
-    	
-    	for (int x = 0; x < w; x++) {
-    		for (int y = 0; y < h; y++) {
-    			Pixel p = bmp[x][y];
-    			int r = p.getRed();
-    			int g = p.getGreen();
-    			int b = p.getBlue();
-    			int s = r + g + b;
-    			avg_color += s;
-    		}
-    	}
-    	
-    	
-    	// find the average intensity of the picture 
-    	int avg_intensity = (int) Math.round(avg_color / (w * h * 3));
-    	
-    	for (int i = 0; i < w; i++) {
-    		for (int j = 0; j < h; j++) {
-    			Pixel p = bmp[i][j];
-    			int r = (int) Math.round((p.getRed() - avg_intensity) * multiplier) + avg_intensity;
-    			int g = (int) Math.round((p.getGreen() - avg_intensity) * multiplier)+avg_intensity;
-    			int b = (int) Math.round((p.getBlue() - avg_intensity) * multiplier)+ avg_intensity;
-    			bmp[i][j] = new Pixel(r, g, b);
-    		}
-    	}
-    	
-    	return new PixelPicture(bmp);
-    	
+        int h = pic.getHeight();
+        int w = pic.getWidth();
+
+        int[] bmp = pic.getPixels();
+        // Sum the values of all the color components. This is a long so that
+        // it cannot overflow on large pictures. If the picture already has a
+        // summed-area table (localContrast builds one) the sum is free;
+        // building one just for this would cost several times more than one
+        // pass over the pixels.
+        SummedAreaTable sat = pic.cachedSummedAreaTable();
+        long avg_color = sat != null ? sat.sum(0, 0, w, h)
+                                     : PointOps.runAndSum(bmp, w, h, null);
+
+        // find the average intensity of the picture
+        int avg_intensity = PointOps.averageIntensity(avg_color, w * h);
+
+        PointOps.run(bmp, w, h, PointOps.contrast(avg_intensity, multiplier));
+
+        return PixelPicture.wrap(w, h, bmp);
+    }
+
+    /**
+     * Increase or decrease the contrast of a picture locally.
+     *
+     * Like adjustContrast, but each component of each pixel is moved away
+     * from (or towards) the mean of that component over the square of side
+     * 2 * radius + 1 around the pixel, cut down to the picture, rather than
+     * from the average intensity of the whole picture. Detail stands out
+     * the same in dark and bright parts of the picture.
+     *
+     * The means come from the summed-area table of the picture, so each
+     * costs the same whatever the radius. The table is kept with the
+     * picture, and adjustContrast reads its average from it too.
+     *
+     * @throws IllegalArgumentException if radius is less than 1
+     */
+    public static PixelPicture localContrast(PixelPicture pic, int radius, double multiplier) {
+        if (radius < 1) {
+            throw new IllegalArgumentException("radius must be at least 1, got " + radius);
+        }
+        int h = pic.getHeight();
+        int w = pic.getWidth();
+
+        SummedAreaTable sat = pic.getSummedAreaTable();
+        int[] bmp = pic.getPixels();
+        TileScheduler.forEachRow(w, h, 1, (start, end) -> {
+            for (int y = start; y < end; y++) {
+                int y0 = Math.max(0, y - radius);
+                int y1 = Math.min(h, y + radius + 1);
+                for (int x = 0; x < w; x++) {
+                    int x0 = Math.max(0, x - radius);
+                    int x1 = Math.min(w, x + radius + 1);
+                    int i = y * w + x;
+                    int p = bmp[i];
+                    bmp[i] = Pixel.rgb(
+                        stretch((p >> 16) & 0xff, sat.mean(SummedAreaTable.RED, x0, y0, x1, y1),
+                                multiplier),
+                        stretch((p >> 8) & 0xff, sat.mean(SummedAreaTable.GREEN, x0, y0, x1, y1),
+                                multiplier),
+                        stretch(p & 0xff, sat.mean(SummedAreaTable.BLUE, x0, y0, x1, y1),
+                                multiplier));
+                }
+            }
+        });
+
+        return PixelPicture.wrap(w, h, bmp);
+    }
+
+    // A component moved away from a mean by a multiplier, not yet clipped
+    private static int stretch(int c, double mean, double multiplier) {
+        return (int) Math.round((c - mean) * multiplier + mean);
     }
 
     /**
      * Reduce a picture to its most common colors.
      *
-     * You will need to make use of the ColorMap class to generate a map from
-     * Pixels of a certain color to the frequency with which pixels of that color
-     * appear in the image. If you go to the ColorMap class, you will notice 
-     * that it does not have an explicitily declared constructor. In those cases,
-     * Java provides a default constructor, which you can call with no arguments:
-     * ColorMap m = new ColorMap();
-     * Once you have generated your ColorMap, select your palette by retrieving
-     * the pixels whose color appears in the picture with the highest frequency.
-     * Then change each pixel in the picture to one with the closest matching
-     * color from your palette.
+     * We use a ColorHistogram (the packed-pixel version of ColorMap) to count
+     * the frequency with which pixels of each color appear in the image, then
+     * select the palette by retrieving the colors that appear with the highest
+     * frequency. Then each pixel in the picture is changed to the closest
+     * matching color from the palette. If the picture has fewer than
+     * numColors distinct colors, all of them are kept.
      *
      * Note that if there are two different colors that are the *same* minimal
      * distance from the given color, your code should select the most
@@ -97,53 +135,79 @@ public class AdvancedManipulations {
      *
      * @param pic The Pixel for which the closest match should be found.
      * @return The most closely matched Pixel from the palette.
+     * @see #reducePalette(PixelPicture, int, PaletteStrategy)
      */
     public static PixelPicture reducePalette(PixelPicture pic, int numColors) {
-        
-    	ColorMap m = new ColorMap();
-    	
-    	int h = pic.getHeight();
-    	int w = pic.getWidth();
-    	
-    	Pixel[][] bmp = pic.getBitmap();
-    	
-    	for (int x = 0; x < w; x++) {
-    		for (int y = 0; y < h; y++) {
-    			
-    			Pixel p = bmp[x][y];
-    			
-    			if (m.contains(p)) {
-    				int v = m.getValue(p);
-    				m.put(p, v + 1);
-    			} else {
-    				m.put(p, 1);    				
-    			}
-    		}
-    	}
-    	
-    	
-    	Pixel[] palette = m.getSortedPixels();
-    	
-    	for (int i = 0; i < w; i++) {
-    		for (int j = 0; j < h; j++) {
-    			
-    			Pixel p = bmp[i][j];
-    			
-    			int dist = 255+255+255; 
-    			Pixel closePixel = p; 
-    			
-    			for(int v = 0; v < numColors; v++) {
-    				
-    				if (p.distance(palette[v]) < dist) {
-    					dist = p.distance(palette[v]);
-    					closePixel = palette[v];
-    				}
-    			}
-    			bmp[i][j] = closePixel;
-    		}
-    	}
-    	
-    	return new PixelPicture(bmp);
+        return reducePalette(pic, numColors, PaletteStrategy.FREQUENCY);
+    }
+
+    /**
+     * Reduce a picture to a palette of at most numColors colors, chosen by
+     * the given strategy. FREQUENCY is the method above; OCTREE and
+     * MEDIAN_CUT spread the palette over the colors of the picture, in
+     * bounded memory however many colors it has.
+     */
+    public static PixelPicture reducePalette(PixelPicture pic, int numColors,
+                                             PaletteStrategy strategy) {
+        int h = pic.getHeight();
+        int w = pic.getWidth();
+
+        int[] bmp = pic.getPixels();
+        switch (strategy) {
+            case OCTREE:
+                new OctreeQuantizer(bmp, numColors).mapAll(bmp);
+                return PixelPicture.wrap(w, h, bmp);
+            case MEDIAN_CUT:
+                new MedianCutQuantizer(bmp, numColors).mapAll(bmp);
+                return PixelPicture.wrap(w, h, bmp);
+            default:
+                return reduceByFrequency(bmp, w, h, numColors);
+        }
+    }
+
+    // Reduces the w x h pixels in bmp, a copy that is free to change, to
+    // their most frequent colors
+    private static PixelPicture reduceByFrequency(int[] bmp, int w, int h, int numColors) {
+        // count every color, then take the most frequent ones, in the same
+        // order as ColorMap.getSortedPixels
+        ColorHistogram m = ColorHistogram.of(bmp);
+        int[] palette = m.mostFrequent(numColors);
+        int paletteSize = palette.length;
+
+        PaletteIndex index = new PaletteIndex(palette);
+
+        TileScheduler.forEachPixel(bmp.length, (start, end) -> {
+            // photos repeat colors heavily, so remember recent answers in a
+            // small direct-mapped table (one per tile, so no sharing)
+            int[] seen = new int[MEMO_SIZE];
+            int[] answer = new int[MEMO_SIZE];
+            Arrays.fill(seen, -1);
+
+            for (int i = start; i < end; i++) {
+                int p = bmp[i];
+                int slot = (p * 0x9E3779B9) >>> (32 - MEMO_BITS);
+                if (seen[slot] == p) {
+                    bmp[i] = answer[slot];
+                    continue;
+                }
+
+                // the first palette entry at the smallest distance wins; a
+                // pixel that is as far as possible from the whole palette
+                // keeps its color
+                int closePixel = p;
+                int v = index.nearestIndex(p);
+                if (v >= 0 && PaletteIndex.distance(palette[v], (p >> 16) & 0xff,
+                        (p >> 8) & 0xff, p & 0xff) < 255+255+255) {
+                    closePixel = palette[v];
+                }
+
+                seen[slot] = p;
+                answer[slot] = closePixel;
+                bmp[i] = closePixel;
+            }
+        });
+
+        return PixelPicture.wrap(w, h, bmp);
     }
 
     
@@ -191,56 +255,165 @@ public class AdvancedManipulations {
      * @return A blurred version of the original picture.
      */
     public static PixelPicture blur(PixelPicture pic, int radius) {
-    	
-    	int h = pic.getHeight();
-    	int w = pic.getWidth();
-    	
-    	Pixel[][] bmp = pic.getBitmap();
-    	Pixel[][] tgt = new Pixel[w][h];
-    	
-    	for (int k = 0; k < w; k++) {
-    		for (int l = 0; l < h; l++) {
-    			
-    			tgt[k][l] = AveragePixel(bmp, k, l, radius, h, w);
-    			
-    		}
-    	}
-    	
-    	
-        return new PixelPicture(tgt);
+        int h = pic.getHeight();
+        int w = pic.getWidth();
+
+        int[] bmp = pic.getPixels();
+        int[] tgt = new int[w * h];
+
+        // each band re-reads up to 2R+1 rows above it, so keep bands tall
+        TileScheduler.forEachRow(w, h, 4 * radius,
+                (start, end) -> blurRows(bmp, tgt, w, h, radius, start, end));
+
+        return PixelPicture.wrap(w, h, tgt);
     }
 
-    // You may want to add a static helper function here to help find the
-    // average color around the pixel you are blurring.
+    /*
+     * The box sum is separable, so instead of rescanning the (2R+1)^2 window
+     * for every pixel we keep running sums. colR/colG/colB hold, for each
+     * column, the sum of the source rows currently inside the vertical
+     * window; moving down a row adds the row entering the window and removes
+     * the one leaving it. Each output row is then a horizontal sliding window
+     * over those column sums. The cost per pixel is constant in the radius,
+     * and since windows are clipped at the edges exactly as before (dividing
+     * by the number of pixels actually inside the image) the results are
+     * identical to the direct average.
+     *
+     * Only rows yStart (inclusive) to yEnd (exclusive) of tgt are written.
+     */
+    private static void blurRows(int[] src, int[] tgt, int w, int h, int r,
+                                 int yStart, int yEnd) {
+        int[] colR = new int[w];
+        int[] colG = new int[w];
+        int[] colB = new int[w];
 
-    private static Pixel AveragePixel (Pixel[][] p, int x, int y, int r, int h, int w) {
-    
-		int avgR = 0; 
-		int avgG = 0;
-		int avgB = 0;
-		int boxCount = 0;
-		
-		for (int i = 0; i <= 2*r; i++) {
-			for (int j = 0; j <= 2*r; j++) {
-				
-				if ((x - r + i) >= 0 && (y - r + j) >= 0 
-						&& (x - r + i) < w  && (y - r + j) < h) {
-					avgR += p[x - r + i][y - r + j].getRed();
-					avgG += p[x - r + i][y - r + j].getGreen();
-					avgB += p[x - r + i][y - r + j].getBlue();
-					boxCount+=1;
-				}
-			}
-		}
-		
-		int avR = (int)Math.round(avgR / (double)boxCount);
-		int avG = (int)Math.round(avgG / (double)boxCount);
-		int avB = (int)Math.round(avgB / (double)boxCount);
-		
-		return new Pixel(avR, avG, avB);
-	
+        // prime the column sums with the window just above the first row, so
+        // that the first step below can slide it down like any other
+        for (int j = Math.max(0, yStart - r - 1); j < Math.min(h, yStart + r); j++) {
+            addRow(src, w, j, colR, colG, colB, 1);
+        }
+
+        for (int y = yStart; y < yEnd; y++) {
+            if (y + r < h) {
+                addRow(src, w, y + r, colR, colG, colB, 1);
+            }
+            if (y - r - 1 >= 0) {
+                addRow(src, w, y - r - 1, colR, colG, colB, -1);
+            }
+            int rows = Math.min(h - 1, y + r) - Math.max(0, y - r) + 1;
+
+            long sumR = 0;
+            long sumG = 0;
+            long sumB = 0;
+            for (int i = 0; i < Math.min(w, r); i++) {
+                sumR += colR[i];
+                sumG += colG[i];
+                sumB += colB[i];
+            }
+
+            for (int x = 0; x < w; x++) {
+                if (x + r < w) {
+                    sumR += colR[x + r];
+                    sumG += colG[x + r];
+                    sumB += colB[x + r];
+                }
+                if (x - r - 1 >= 0) {
+                    sumR -= colR[x - r - 1];
+                    sumG -= colG[x - r - 1];
+                    sumB -= colB[x - r - 1];
+                }
+                int cols = Math.min(w - 1, x + r) - Math.max(0, x - r) + 1;
+                double boxCount = (double) rows * cols;
+
+                int avR = (int)Math.round(sumR / boxCount);
+                int avG = (int)Math.round(sumG / boxCount);
+                int avB = (int)Math.round(sumB / boxCount);
+                tgt[y * w + x] = Pixel.rgb(avR, avG, avB);
+            }
+        }
     }
-    
+
+    // Adds (sign = 1) or removes (sign = -1) row j of src from the column sums.
+    private static void addRow(int[] src, int w, int j,
+                               int[] colR, int[] colG, int[] colB, int sign) {
+        int off = j * w;
+        for (int x = 0; x < w; x++) {
+            int c = src[off + x];
+            colR[x] += sign * ((c >> 16) & 0xff);
+            colG[x] += sign * ((c >> 8) & 0xff);
+            colB[x] += sign * (c & 0xff);
+        }
+    }
+
+    /**
+     * Emboss a picture, as in ItalyEmboss.png.
+     *
+     * Each component is replaced by its difference from the same component
+     * of the pixel up and to the left, around a middle gray (127), and the
+     * pixel becomes the gray of its largest component. Where that neighbor
+     * is outside the picture, the pixel is compared with itself and comes
+     * out middle gray.
+     */
+    public static PixelPicture emboss(PixelPicture pic) {
+        PixelPicture raised = Convolution.convolve(pic, ConvolutionKernel.emboss(),
+                                                   Convolution.Edge.CENTER);
+        PointOp grayByMax = (rgb, x, y, w, h) -> {
+            int v = Math.max((rgb >> 16) & 0xff, Math.max((rgb >> 8) & 0xff, rgb & 0xff));
+            return Pixel.rgb(v, v, v);
+        };
+        return grayByMax.applyTo(raised);
+    }
+
+    /**
+     * Sharpen a picture, with ConvolutionKernel.sharpen.
+     */
+    public static PixelPicture sharpen(PixelPicture pic) {
+        return Convolution.convolve(pic, ConvolutionKernel.sharpen());
+    }
+
+    /**
+     * Blur a picture with a Gaussian of the given standard deviation, which
+     * looks smoother than the box blur of blur().
+     */
+    public static PixelPicture gaussianBlur(PixelPicture pic, double sigma) {
+        return Convolution.convolve(pic, ConvolutionKernel.gaussian(sigma));
+    }
+
+    /**
+     * Find the edges of a picture.
+     *
+     * Each component becomes the strength of the edge through the pixel in
+     * that component: the length of the gradient given by the two Sobel
+     * operators, clipped to 255. Flat areas turn black.
+     */
+    public static PixelPicture detectEdges(PixelPicture pic) {
+        int w = pic.getWidth();
+        int h = pic.getHeight();
+        int[] bmp = pic.getPixels();
+        int n = w * h;
+        float[] src = new float[n];
+        float[] gx = new float[n];
+        float[] gy = new float[n];
+        float[] tmp = new float[n];
+        int[] out = new int[n];
+        ConvolutionKernel sx = ConvolutionKernel.sobelX();
+        ConvolutionKernel sy = ConvolutionKernel.sobelY();
+        for (int shift = 16; shift >= 0; shift -= 8) {
+            Convolution.component(bmp, shift, src);
+            Convolution.plane(src, gx, tmp, w, h, sx, Convolution.Edge.CLAMP,
+                              Convolution.Method.SEPARABLE);
+            Convolution.plane(src, gy, tmp, w, h, sy, Convolution.Edge.CLAMP,
+                              Convolution.Method.SEPARABLE);
+            TileScheduler.forEachPixel(n, (start, end) -> {
+                for (int i = start; i < end; i++) {
+                    gx[i] = (float) Math.sqrt(gx[i] * gx[i] + gy[i] * gy[i]);
+                }
+            });
+            Convolution.deposit(gx, shift, 0, out);
+        }
+        return PixelPicture.wrap(w, h, out);
+    }
+
     /**
      * Challenge Problem (this problem is worth 0 points):
      * Flood pixels of the same color with a different color.
@@ -265,8 +438,15 @@ public class AdvancedManipulations {
      * This is a naive algorithm that can be made significantly faster if you
      * wish to try.
      *
-     * For Q, you should use the provided IntQueue class. It works very much
-     * like the queues we implemented in OCaml.
+     * We do: instead of single points, Q holds seeds of horizontal spans. A
+     * seed is extended left and right as far as the target color goes, the
+     * whole span is filled at once, and the rows above and below are scanned
+     * over the span's extent, adding one seed for each run of target-colored
+     * pixels found there. Q is an IntQueue of packed indices (y * width + x)
+     * and a BitSet records which pixels have been filled, so every pixel is
+     * examined a small constant number of times.
+     *
+     * If (x,y) is outside the picture, the picture is returned unchanged.
      *
      * @param pic The original picture to be flooded.
      * @param c The pixel the user "clicked" (representing the color that should be flooded).
@@ -275,6 +455,64 @@ public class AdvancedManipulations {
      * @return A new picture with the appropriate region flooded.
      */
     public static PixelPicture flood(PixelPicture pic, Pixel c, int x, int y) {
-        return pic;
+        int w = pic.getWidth();
+        int h = pic.getHeight();
+
+        if (x < 0 || y < 0 || x >= w || y >= h) {
+            return pic;
+        }
+
+        int[] bmp = pic.getPixels();
+        int target = bmp[y * w + x];
+        int color = c.getRGB();
+
+        BitSet filled = new BitSet(w * h);
+        IntQueue q = new IntQueue();
+        q.add(y * w + x);
+
+        while (!q.isEmpty()) {
+            int seed = q.remove();
+            if (filled.get(seed)) {
+                continue;
+            }
+            int row = seed - seed % w;
+            int py = seed / w;
+
+            // extend the span left and right from the seed
+            int left = seed;
+            while (left > row && bmp[left - 1] == target && !filled.get(left - 1)) {
+                left--;
+            }
+            int right = seed;
+            while (right < row + w - 1 && bmp[right + 1] == target && !filled.get(right + 1)) {
+                right++;
+            }
+
+            filled.set(left, right + 1);
+            Arrays.fill(bmp, left, right + 1, color);
+
+            // queue one seed per run of target pixels above and below
+            if (py > 0) {
+                addRuns(bmp, filled, q, target, left - w, right - w);
+            }
+            if (py < h - 1) {
+                addRuns(bmp, filled, q, target, left + w, right + w);
+            }
+        }
+
+        return PixelPicture.wrap(w, h, bmp);
+    }
+
+    // Adds a seed to q for each run of unfilled target pixels in [from, to].
+    private static void addRuns(int[] bmp, BitSet filled, IntQueue q,
+                                int target, int from, int to) {
+        boolean inRun = false;
+        for (int i = from; i <= to; i++) {
+            boolean matches = bmp[i] == target && !filled.get(i);
+            if (matches && !inRun) {
+                q.add(i);
+            }
+            inRun = matches;
+        }
     }
 }
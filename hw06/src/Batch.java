@@ -0,0 +1,448 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Applies an effect or a chain of manipulations to many images without the
+ * GUI.
+ *
+ * <pre>
+ *   java Batch [options] OPS INPUT...
+ *
+ *   OPS      comma separated steps, applied in order, e.g. "zombie" or
+ *            "blur:2,contrast:1.5,border:10" (run with no arguments for
+ *            the list of steps)
+ *   INPUT    an image, a directory (every image directly inside it) or a
+ *            glob such as "photos/*.png" or "photos/**.jpg"; images found
+ *            by a glob keep their path below the directory the glob starts
+ *            from, so "photos/a/x.jpg" is written to "out/a/x.jpg"
+ *
+ *   -out DIR        where to write the results (default "out")
+ *   -format EXT     the format to write, e.g. png or raw (default: the
+ *                   input's own format)
+ *   -decoders N     threads decoding images (default 2)
+ *   -encoders N     threads encoding images (default 2)
+ *   -queue N        images waiting between two stages (default 4)
+ *   -threads N      threads each filter runs on (see TileScheduler)
+ * </pre>
+ *
+ * Decoding, filtering and encoding run as three stages connected by bounded
+ * queues, so while one image is being filtered the next ones are being
+ * decoded and the previous ones encoded, and at most a few images are in
+ * memory at once. The filter stage is a single thread; each filter already
+ * uses every core through TileScheduler. At the end the time spent in every
+ * stage is printed, which shows which stage limits the throughput.
+ */
+public class Batch {
+
+    private static final String[] IMAGE_SUFFIXES = { "png", "jpg", "jpeg", "gif", "bmp", "raw" };
+
+    private static final String STEPS =
+        "  effects:  1890s, pinhole, zombie, plastic, peaches, custom\n"
+        + "  simple:   rotatecw, rotateccw, mirrorh, mirrorv, invert, grayaverage,\n"
+        + "            grayluminosity, vignette, border:WIDTH, scale:R:G:B\n"
+        + "  advanced: blur:RADIUS, contrast:MULTIPLIER, palette:COLORS[:octree|median-cut],\n"
+        + "            emboss, sharpen, gaussian:SIGMA, edges, localcontrast:RADIUS:MULTIPLIER";
+
+    // One image on its way through the stages
+    static class Job {
+        final File in;
+        final File out;
+        PixelPicture pic;
+
+        Job(File in, File out) {
+            this.in = in;
+            this.out = out;
+        }
+    }
+
+    private static final Job END = new Job(null, null);
+
+    // An image to read, and its path below the output directory
+    static final class Input {
+        final File file;
+        final Path relative;
+
+        Input(File file, Path relative) {
+            this.file = file;
+            this.relative = relative;
+        }
+    }
+
+    // The counters of one stage
+    private static class Stage {
+        final String name;
+        final int threads;
+        final AtomicInteger images = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+        final AtomicLong pixels = new AtomicLong();
+        final AtomicLong nanos = new AtomicLong();
+        // the workers of this stage that have not finished yet
+        final AtomicInteger running;
+
+        Stage(String name, int threads) {
+            this.name = name;
+            this.threads = threads;
+            this.running = new AtomicInteger(threads);
+        }
+    }
+
+    // The work one stage does to a job
+    private interface Work {
+        void apply(Job job) throws Exception;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        File outDir = new File("out");
+        String format = null;
+        int decoders = 2;
+        int encoders = 2;
+        int queue = 4;
+
+        int a = 0;
+        try {
+            for (; a < args.length && args[a].startsWith("-"); a += 2) {
+                if (a + 1 == args.length) {
+                    throw new IllegalArgumentException("missing value for " + args[a]);
+                }
+                String value = args[a + 1];
+                switch (args[a]) {
+                    case "-out":      outDir = new File(value); break;
+                    case "-format":   format = value; break;
+                    case "-decoders": decoders = positive(value); break;
+                    case "-encoders": encoders = positive(value); break;
+                    case "-queue":    queue = positive(value); break;
+                    case "-threads":  TileScheduler.setParallelism(positive(value)); break;
+                    default:          throw new IllegalArgumentException("unknown option " + args[a]);
+                }
+            }
+            if (args.length - a < 2) {
+                throw new IllegalArgumentException("expected OPS and at least one INPUT");
+            }
+        } catch (RuntimeException e) {
+            System.err.println(e.getMessage() == null ? e.toString() : e.getMessage());
+            usage();
+            return;
+        }
+
+        final UnaryOperator<PixelPicture> ops;
+        final List<Input> inputs = new ArrayList<Input>();
+        final List<Job> jobs;
+        try {
+            ops = parse(args[a]);
+            for (int i = a + 1; i < args.length; i++) {
+                inputs.addAll(expand(args[i]));
+            }
+            jobs = jobs(inputs, outDir, format);
+        } catch (IllegalArgumentException | IOException e) {
+            System.err.println(e.getMessage());
+            usage();
+            return;
+        }
+        if (inputs.isEmpty()) {
+            System.err.println("no images found");
+            return;
+        }
+        if (!outDir.isDirectory() && !outDir.mkdirs()) {
+            System.err.println("cannot create " + outDir);
+            return;
+        }
+
+        BlockingQueue<Job> files = new ArrayBlockingQueue<Job>(jobs.size() + 1);
+        files.addAll(jobs);
+        files.add(END);
+
+        BlockingQueue<Job> decoded = new ArrayBlockingQueue<Job>(queue);
+        BlockingQueue<Job> filtered = new ArrayBlockingQueue<Job>(queue);
+
+        Stage decode = new Stage("decode", decoders);
+        Stage filter = new Stage("filter", 1);
+        Stage encode = new Stage("encode", encoders);
+
+        long start = System.nanoTime();
+        List<Thread> threads = new ArrayList<Thread>();
+        threads.addAll(start(decode, files, decoded,
+                job -> job.pic = new PixelPicture(job.in.getPath())));
+        threads.addAll(start(filter, decoded, filtered,
+                job -> job.pic = ops.apply(job.pic)));
+        threads.addAll(start(encode, filtered, null, job -> {
+            File dir = job.out.getParentFile();
+            // another encoder may create it at the same time
+            if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+                throw new IOException("cannot create " + dir);
+            }
+            job.pic.save(job.out.getPath());
+        }));
+        for (Thread t : threads) {
+            t.join();
+        }
+        long wall = System.nanoTime() - start;
+
+        report(wall, decode, filter, encode);
+    }
+
+    private static int positive(String s) {
+        int n = Integer.parseInt(s);
+        if (n < 1) {
+            throw new IllegalArgumentException("expected a positive number, got " + s);
+        }
+        return n;
+    }
+
+    private static void usage() {
+        System.err.println("usage: java Batch [-out DIR] [-format EXT] [-decoders N] [-encoders N]\n"
+                           + "                  [-queue N] [-threads N] OPS INPUT...\n"
+                           + "OPS is a comma separated list of:\n" + STEPS);
+    }
+
+    /**
+     * Parses a comma separated chain of steps into a single manipulation.
+     * Consecutive point-wise steps are fused through a Pipeline.
+     *
+     * @throws IllegalArgumentException if a step is unknown or has bad arguments
+     */
+    static UnaryOperator<PixelPicture> parse(String chain) {
+        Pipeline p = new Pipeline();
+        for (String step : chain.split(",")) {
+            String[] parts = step.trim().split(":");
+            String name = parts[0].toLowerCase(Locale.ROOT);
+            try {
+                switch (name) {
+                    case "1890s":          p.apply(Effects::eighteenNinety); break;
+                    case "pinhole":        p.apply(Effects::pinHole); break;
+                    case "zombie":         p.apply(Effects::zombie); break;
+                    case "plastic":        p.apply(Effects::plastic); break;
+                    case "peaches":        p.apply(Effects::peaches); break;
+                    case "custom":         p.apply(Effects::custom); break;
+                    case "rotatecw":       p.apply(SimpleManipulations::rotateCW); break;
+                    case "rotateccw":      p.apply(SimpleManipulations::rotateCCW); break;
+                    case "mirrorh":        p.apply(SimpleManipulations::mirrorHorizontal); break;
+                    case "mirrorv":        p.apply(SimpleManipulations::mirrorVertical); break;
+                    case "invert":         p.map(PointOps.invertColors()); break;
+                    case "grayaverage":    p.map(PointOps.grayScaleAverage()); break;
+                    case "grayluminosity": p.map(PointOps.grayScaleLuminosity()); break;
+                    case "vignette":       p.apply(SimpleManipulations::vignette); break;
+                    case "border": {
+                        int width = Integer.parseInt(parts[1]);
+                        p.apply(pic -> SimpleManipulations.border(pic, width, Pixel.BLACK));
+                        break;
+                    }
+                    case "scale":
+                        p.map(PointOps.scaleColors(Double.parseDouble(parts[1]),
+                                                   Double.parseDouble(parts[2]),
+                                                   Double.parseDouble(parts[3])));
+                        break;
+                    case "blur": {
+                        int radius = Integer.parseInt(parts[1]);
+                        p.apply(pic -> AdvancedManipulations.blur(pic, radius));
+                        break;
+                    }
+                    case "gaussian": {
+                        double sigma = Double.parseDouble(parts[1]);
+                        p.apply(pic -> AdvancedManipulations.gaussianBlur(pic, sigma));
+                        break;
+                    }
+                    case "emboss":         p.apply(AdvancedManipulations::emboss); break;
+                    case "sharpen":        p.apply(AdvancedManipulations::sharpen); break;
+                    case "edges":          p.apply(AdvancedManipulations::detectEdges); break;
+                    case "contrast":       p.contrast(Double.parseDouble(parts[1])); break;
+                    case "localcontrast": {
+                        int radius = Integer.parseInt(parts[1]);
+                        double multiplier = Double.parseDouble(parts[2]);
+                        p.apply(pic -> AdvancedManipulations.localContrast(pic, radius, multiplier));
+                        break;
+                    }
+                    case "palette": {
+                        int colors = Integer.parseInt(parts[1]);
+                        PaletteStrategy strategy = parts.length > 2
+                            ? PaletteStrategy.parse(parts[2]) : PaletteStrategy.FREQUENCY;
+                        p.apply(pic -> AdvancedManipulations.reducePalette(pic, colors, strategy));
+                        break;
+                    }
+                    default:
+                        throw new IllegalArgumentException("unknown step " + step);
+                }
+            } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+                throw new IllegalArgumentException("bad arguments in step " + step);
+            }
+        }
+        return p::run;
+    }
+
+    /**
+     * The images named by one INPUT argument: the file itself, the images
+     * directly inside a directory, or the images matching a glob. The first
+     * two are written straight into the output directory, and images found
+     * by a glob keep their path below the directory it starts from.
+     */
+    static List<Input> expand(String input) throws IOException {
+        File f = new File(input);
+        if (f.isFile()) {
+            List<Input> one = new ArrayList<Input>();
+            one.add(new Input(f, Paths.get(f.getName())));
+            return one;
+        }
+        if (f.isDirectory()) {
+            try (Stream<Path> s = Files.list(f.toPath())) {
+                return images(s, f.toPath());
+            }
+        }
+
+        // a glob: search from the longest directory prefix without wildcards
+        int wild = firstWildcard(input);
+        if (wild < 0) {
+            throw new IOException("no such file or directory: " + input);
+        }
+        int slash = input.lastIndexOf('/', wild);
+        Path root = Paths.get(slash < 0 ? "." : input.substring(0, slash + 1));
+        String pattern = slash < 0 ? input : input.substring(slash + 1);
+        final PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+        try (Stream<Path> s = Files.walk(root)) {
+            return images(s.filter(path -> matcher.matches(root.relativize(path))), root);
+        }
+    }
+
+    private static int firstWildcard(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if ("*?[{".indexOf(s.charAt(i)) >= 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static List<Input> images(Stream<Path> paths, Path root) {
+        return paths.filter(path -> path.toFile().isFile()
+                                    && suffix(path.getFileName().toString()) != null)
+                    .sorted()
+                    .map(path -> new Input(path.toFile(), root.relativize(path)))
+                    .collect(Collectors.toList());
+    }
+
+    // The image suffix of a file name, or null if it is not an image
+    private static String suffix(String name) {
+        int dot = name.lastIndexOf('.');
+        if (dot < 0) {
+            return null;
+        }
+        String s = name.substring(dot + 1).toLowerCase(Locale.ROOT);
+        for (String known : IMAGE_SUFFIXES) {
+            if (known.equals(s)) {
+                return s;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The jobs for some inputs, each writing to its path below outDir, with
+     * its suffix changed to format if that is not null.
+     *
+     * @throws IllegalArgumentException if two inputs would be written to
+     *         the same file, like "a/x.jpg" and "b/x.jpg" given as separate
+     *         arguments, or "x.png" and "x.jpg" with a format
+     */
+    static List<Job> jobs(List<Input> inputs, File outDir, String format) {
+        List<Job> jobs = new ArrayList<Job>();
+        Map<File, File> written = new HashMap<File, File>();
+        for (Input in : inputs) {
+            File out = outDir.toPath().resolve(outputName(in.relative, format))
+                             .normalize().toFile();
+            File other = written.put(out.getAbsoluteFile(), in.file);
+            if (other != null) {
+                throw new IllegalArgumentException("both " + other + " and " + in.file
+                                                   + " would be written to " + out);
+            }
+            jobs.add(new Job(in.file, out));
+        }
+        return jobs;
+    }
+
+    private static Path outputName(Path relative, String format) {
+        if (format == null) {
+            return relative;
+        }
+        String name = relative.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return relative.resolveSibling((dot < 0 ? name : name.substring(0, dot)) + "." + format);
+    }
+
+    /**
+     * Starts the workers of a stage. Each takes jobs from in, does the work
+     * and passes the job on to out (if there is one). A job whose work fails
+     * is reported and dropped. The END marker is put back for the other
+     * workers of the stage, and the last one to finish passes it on.
+     */
+    private static List<Thread> start(final Stage stage, final BlockingQueue<Job> in,
+                                      final BlockingQueue<Job> out, final Work work) {
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < stage.threads; i++) {
+            Thread t = new Thread(() -> {
+                try {
+                    for (Job job = in.take(); job != END; job = in.take()) {
+                        long t0 = System.nanoTime();
+                        try {
+                            work.apply(job);
+                        } catch (Exception | OutOfMemoryError e) {
+                            stage.failed.incrementAndGet();
+                            System.err.println(stage.name + " failed for " + job.in + ": " + e);
+                            continue;
+                        } finally {
+                            stage.nanos.addAndGet(System.nanoTime() - t0);
+                        }
+                        stage.images.incrementAndGet();
+                        stage.pixels.addAndGet((long) job.pic.getWidth() * job.pic.getHeight());
+                        if (out != null) {
+                            out.put(job);
+                        } else {
+                            job.pic = null;
+                        }
+                    }
+                    in.put(END);
+                    if (stage.running.decrementAndGet() == 0 && out != null) {
+                        out.put(END);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, "batch-" + stage.name + "-" + i);
+            t.start();
+            threads.add(t);
+        }
+        return threads;
+    }
+
+    // Prints how much work each stage did and how fast
+    private static void report(long wall, Stage... stages) {
+        double seconds = wall / 1e9;
+        System.out.printf("%-8s %7s %7s %6s %9s %9s %9s%n",
+                          "stage", "threads", "images", "failed", "busy s", "images/s", "MP/s");
+        for (Stage s : stages) {
+            double busy = s.nanos.get() / 1e9;
+            // throughput while busy, over all of the stage's threads
+            double rate = busy == 0 ? 0 : s.images.get() * s.threads / busy;
+            double mps = busy == 0 ? 0 : s.pixels.get() * s.threads / busy / 1e6;
+            System.out.printf("%-8s %7d %7d %6d %9.2f %9.2f %9.2f%n",
+                              s.name, s.threads, s.images.get(), s.failed.get(), busy, rate, mps);
+        }
+        Stage last = stages[stages.length - 1];
+        System.out.printf("%d images in %.2f s, %.2f images/s overall%n",
+                          last.images.get(), seconds, last.images.get() / seconds);
+    }
+}
@@ -0,0 +1,118 @@
+import java.util.function.IntUnaryOperator;
+
+/**
+ * A PointOp that transforms each color component on its own, through a
+ * lookup table of 256 entries per component.
+ *
+ * scaleColors, invertColors and contrast are all of this kind: the new red
+ * depends only on the old red, and so on. Computing the table once (768
+ * evaluations of the function) turns each pixel into three array lookups,
+ * however much arithmetic the function does.
+ *
+ * Composing two tables with then() gives another table, so a chain of such
+ * transforms, like the tints in Effects, still costs one lookup per
+ * component. PointOp.then does this for any transform followed by a table,
+ * so a table that follows some other transform is fused with the tables
+ * after it too (see after).
+ */
+public final class ChannelLut implements PointOp {
+
+    private final byte[] red;
+    private final byte[] green;
+    private final byte[] blue;
+
+    private ChannelLut(byte[] red, byte[] green, byte[] blue) {
+        this.red = red;
+        this.green = green;
+        this.blue = blue;
+    }
+
+    /**
+     * Builds the table of a transform given as one function per component.
+     * Each function gets a component in [0, 255]; its result is clipped to
+     * [0, 255], like Pixel.rgb does.
+     */
+    public static ChannelLut of(IntUnaryOperator r, IntUnaryOperator g, IntUnaryOperator b) {
+        return new ChannelLut(table(r), table(g), table(b));
+    }
+
+    /**
+     * Builds the table of a transform that does the same to every component.
+     */
+    public static ChannelLut of(IntUnaryOperator f) {
+        byte[] t = table(f);
+        return new ChannelLut(t, t, t);
+    }
+
+    /**
+     * The table behind a PointOp, or null if it is not a table.
+     */
+    static ChannelLut from(PointOp op) {
+        op = PointOps.unwrap(op);
+        return op instanceof ChannelLut ? (ChannelLut) op : null;
+    }
+
+    private static byte[] table(IntUnaryOperator f) {
+        byte[] t = new byte[256];
+        for (int c = 0; c < 256; c++) {
+            t[c] = (byte) Math.min(Math.max(0, f.applyAsInt(c)), 255);
+        }
+        return t;
+    }
+
+    @Override
+    public int apply(int rgb, int x, int y, int width, int height) {
+        return ((red[(rgb >> 16) & 0xff] & 0xff) << 16)
+             | ((green[(rgb >> 8) & 0xff] & 0xff) << 8)
+             | (blue[rgb & 0xff] & 0xff);
+    }
+
+    /**
+     * The table of applying this table and then another.
+     */
+    public ChannelLut then(ChannelLut next) {
+        return new ChannelLut(compose(red, next.red), compose(green, next.green),
+                              compose(blue, next.blue));
+    }
+
+    private static byte[] compose(byte[] first, byte[] next) {
+        byte[] t = new byte[256];
+        for (int c = 0; c < 256; c++) {
+            t[c] = next[first[c] & 0xff];
+        }
+        return t;
+    }
+
+    /**
+     * This table applied to the result of another transform. If the other
+     * transform already ends in a table (because it was built by after),
+     * the two tables are composed into one.
+     */
+    public PointOp after(PointOp first) {
+        ChannelLut lut = from(first);
+        if (lut != null) {
+            return lut.then(this);
+        }
+        if (first instanceof Followed) {
+            Followed f = (Followed) first;
+            return new Followed(f.op, f.lut.then(this));
+        }
+        return new Followed(first, this);
+    }
+
+    // A transform followed by a table
+    private static final class Followed implements PointOp {
+        private final PointOp op;
+        private final ChannelLut lut;
+
+        Followed(PointOp op, ChannelLut lut) {
+            this.op = op;
+            this.lut = lut;
+        }
+
+        @Override
+        public int apply(int rgb, int x, int y, int width, int height) {
+            return lut.apply(op.apply(rgb, x, y, width, height), x, y, width, height);
+        }
+    }
+}
@@ -0,0 +1,265 @@
+import java.util.Arrays;
+
+/**
+ * Counts how often each color occurs, keyed by packed 24-bit RGB values
+ * (0xRRGGBB, see PixelPicture.getPixels).
+ *
+ * Counts are kept in primitive arrays rather than a map of boxed Pixels.
+ * Small histograms use an open-addressing int to int hash table; histograms
+ * of large pictures use a flat array with one counter for each of the 2^24
+ * possible colors, which costs 64MB but makes counting a single array
+ * increment per pixel.
+ *
+ * Like the TreeMap that ColorMap used to wrap, a color stays in the
+ * histogram once it is added or put, whatever its count; setting a count of
+ * 0 does not remove it. The flat array marks the colors it holds in a bit
+ * set of its own, so that both representations agree.
+ */
+public class ColorHistogram {
+
+    /**
+     * Pictures with at least this many pixels are counted with the flat
+     * 2^24-entry array instead of a hash table.
+     */
+    public static final int DENSE_THRESHOLD = 1 << 22;
+
+    private static final int COLORS = 1 << 24;
+    private static final int EMPTY = -1;
+
+    // Flat counters, indexed by color, or null if using the hash table,
+    // and a bit for every color in the histogram
+    private int[] dense;
+    private long[] present;
+
+    // Hash table: keys[i] is a color or EMPTY, counts[i] its count
+    private int[] keys;
+    private int[] counts;
+    private int shift;
+
+    private int size;
+
+    /**
+     * Creates an empty histogram backed by a hash table.
+     */
+    public ColorHistogram() {
+        this(false);
+    }
+
+    private ColorHistogram(boolean flat) {
+        if (flat) {
+            dense = new int[COLORS];
+            present = new long[COLORS / 64];
+        } else {
+            allocate(16);
+        }
+    }
+
+    /**
+     * Counts the colors of a packed picture, choosing the flat array or the
+     * hash table depending on the number of pixels.
+     *
+     * @param rgb the packed pixels
+     * @return the histogram of rgb
+     */
+    public static ColorHistogram of(int[] rgb) {
+        ColorHistogram hist = new ColorHistogram(rgb.length >= DENSE_THRESHOLD);
+        for (int c : rgb) {
+            hist.add(c);
+        }
+        return hist;
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        counts = new int[capacity];
+        Arrays.fill(keys, EMPTY);
+        shift = 32 - Integer.numberOfTrailingZeros(capacity);
+    }
+
+    // The slot holding color c, or the empty slot where it would go
+    private int slot(int c) {
+        int mask = keys.length - 1;
+        int i = (c * 0x9E3779B9) >>> shift;
+        while (keys[i] != EMPTY && keys[i] != c) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    private void grow() {
+        int[] oldKeys = keys;
+        int[] oldCounts = counts;
+        allocate(keys.length * 2);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int s = slot(oldKeys[i]);
+                keys[s] = oldKeys[i];
+                counts[s] = oldCounts[i];
+            }
+        }
+    }
+
+    /**
+     * Adds one occurrence of a color.
+     *
+     * @param rgb the packed color
+     */
+    public void add(int rgb) {
+        rgb &= 0xffffff;
+        if (dense != null) {
+            // a color with a count other than 0 is already marked
+            if (dense[rgb]++ == 0) {
+                mark(rgb);
+            }
+            return;
+        }
+        int s = slot(rgb);
+        if (keys[s] == EMPTY) {
+            put(rgb, 1);
+        } else {
+            counts[s]++;
+        }
+    }
+
+    /**
+     * Sets the count of a color.
+     *
+     * @param rgb   the packed color
+     * @param count the new count
+     */
+    public void put(int rgb, int count) {
+        rgb &= 0xffffff;
+        if (dense != null) {
+            mark(rgb);
+            dense[rgb] = count;
+            return;
+        }
+        int s = slot(rgb);
+        if (keys[s] == EMPTY) {
+            keys[s] = rgb;
+            size++;
+            if (2 * size > keys.length) {
+                counts[s] = count;
+                grow();
+                return;
+            }
+        }
+        counts[s] = count;
+    }
+
+    // Marks a color as in the flat histogram
+    private void mark(int rgb) {
+        long bit = 1L << rgb;
+        if ((present[rgb >>> 6] & bit) == 0) {
+            present[rgb >>> 6] |= bit;
+            size++;
+        }
+    }
+
+    /**
+     * Determines whether a color has been added to the histogram.
+     *
+     * @param rgb the packed color
+     * @return true if the histogram has a count for the color, even 0
+     */
+    public boolean contains(int rgb) {
+        rgb &= 0xffffff;
+        if (dense != null) {
+            return (present[rgb >>> 6] & (1L << rgb)) != 0;
+        }
+        return keys[slot(rgb)] != EMPTY;
+    }
+
+    /**
+     * Gets the count of a color.
+     *
+     * @param rgb the packed color
+     * @return the count, or 0 if the color is not in the histogram
+     */
+    public int get(int rgb) {
+        rgb &= 0xffffff;
+        if (dense != null) {
+            return dense[rgb];
+        }
+        int s = slot(rgb);
+        return keys[s] == EMPTY ? 0 : counts[s];
+    }
+
+    /**
+     * The number of distinct colors in the histogram.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gets the k most frequent colors, most frequent first.
+     *
+     * Colors with the same count are ordered from the largest packed value
+     * to the smallest, which is the order ColorMap.getSortedPixels has
+     * always used (descending frequency, then descending Pixel order).
+     *
+     * @param k the number of colors wanted; at most size() are returned
+     * @return the packed colors
+     */
+    public int[] mostFrequent(int k) {
+        k = Math.max(0, Math.min(k, size));
+        // Each candidate is packed as count << 24 | color, so comparing
+        // the longs compares by count and then by color. A min-heap of the
+        // k largest keys seen so far gives the top k in O(n log k).
+        long[] heap = new long[k];
+        int n = 0;
+        if (dense != null) {
+            for (int word = 0; word < present.length; word++) {
+                for (long bits = present[word]; bits != 0; bits &= bits - 1) {
+                    int c = 64 * word + Long.numberOfTrailingZeros(bits);
+                    n = offer(heap, n, ((long) dense[c] << 24) | c);
+                }
+            }
+        } else {
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] != EMPTY) {
+                    n = offer(heap, n, ((long) counts[i] << 24) | keys[i]);
+                }
+            }
+        }
+
+        Arrays.sort(heap, 0, n);
+        int[] result = new int[n];
+        for (int i = 0; i < n; i++) {
+            result[i] = (int) (heap[n - 1 - i] & 0xffffff);
+        }
+        return result;
+    }
+
+    // Offers key to a min-heap of capacity heap.length holding n keys,
+    // returning the new number of keys.
+    private static int offer(long[] heap, int n, long key) {
+        if (n < heap.length) {
+            int i = n++;
+            while (i > 0 && heap[(i - 1) / 2] > key) {
+                heap[i] = heap[(i - 1) / 2];
+                i = (i - 1) / 2;
+            }
+            heap[i] = key;
+        } else if (n > 0 && key > heap[0]) {
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= n) {
+                    break;
+                }
+                if (child + 1 < n && heap[child + 1] < heap[child]) {
+                    child++;
+                }
+                if (heap[child] >= key) {
+                    break;
+                }
+                heap[i] = heap[child];
+                i = child;
+            }
+            heap[i] = key;
+        }
+        return n;
+    }
+}
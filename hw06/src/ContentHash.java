@@ -0,0 +1,74 @@
+/**
+ * 64-bit hashes of the pixels of pictures, for PixelPicture.getContentHash.
+ *
+ * The picture is cut into the same TILE x TILE tiles as UndoHistory, and
+ * each tile is hashed on its own. The hash of the picture is a hash of its
+ * size plus the sum of the hashes of its tiles, each mixed with the tile's
+ * position. Because the tiles are simply added up, they are hashed in
+ * parallel (see TileScheduler.sum), and when a few tiles of a picture
+ * whose hash is known change, the new hash is the old one minus what the
+ * old tiles added plus what the new ones add, without reading the rest of
+ * the picture (see UndoHistory.undo).
+ *
+ * Only the low 24 bits of each pixel count. The hash is meant to tell apart
+ * the pictures of one session, not to resist anyone trying to collide it.
+ */
+final class ContentHash {
+
+    /**
+     * The width and height of the tiles.
+     */
+    static final int TILE = UndoHistory.TILE;
+
+    private static final long MULTIPLIER = 0x9e3779b97f4a7c15L;
+
+    private ContentHash() { }
+
+    /**
+     * The hash of a picture of w x h packed pixels.
+     */
+    static long of(int[] data, int w, int h) {
+        int down = (h + TILE - 1) / TILE;
+        int grain = Math.max(1, TileScheduler.TILE_PIXELS / (TILE * w));
+        return size(w, h) + TileScheduler.sum(down, grain, (start, end) -> {
+            long sum = 0;
+            for (int ty = start * TILE; ty < end * TILE; ty += TILE) {
+                for (int tx = 0; tx < w; tx += TILE) {
+                    sum += tile(data, w, h, tx, ty);
+                }
+            }
+            return sum;
+        });
+    }
+
+    /**
+     * What the tile with its top left corner at (tx, ty), both multiples of
+     * TILE, adds to the hash of a picture of w x h packed pixels.
+     */
+    static long tile(int[] data, int w, int h, int tx, int ty) {
+        int xEnd = Math.min(tx + TILE, w);
+        int yEnd = Math.min(ty + TILE, h);
+        long hash = 0;
+        for (int y = ty; y < yEnd; y++) {
+            int off = y * w;
+            for (int i = off + tx; i < off + xEnd; i++) {
+                hash = (hash + (data[i] & 0xffffff)) * MULTIPLIER;
+            }
+        }
+        long position = (long) (ty / TILE) * ((w + TILE - 1) / TILE) + tx / TILE;
+        return mix(hash + (position + 1) * MULTIPLIER);
+    }
+
+    // What the size adds to the hash
+    private static long size(int w, int h) {
+        return mix(((long) w << 32) | h);
+    }
+
+    // The finalizer of MurmurHash3: every bit of the input affects every
+    // bit of the output
+    private static long mix(long z) {
+        z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+        z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return z ^ (z >>> 33);
+    }
+}
@@ -0,0 +1,310 @@
+import java.util.Arrays;
+
+/**
+ * Convolves pictures with a ConvolutionKernel, component by component.
+ *
+ * There are three ways of running a kernel, picked by the kernel's shape:
+ *
+ *   - DIRECT adds up every weighted neighbor of every pixel. It costs one
+ *     multiply-add per weight per pixel, which is best for small kernels.
+ *   - SEPARABLE runs a kernel that is the outer product of a column and a
+ *     row (a Gaussian, a box, the Sobel operators) as a horizontal pass and
+ *     then a vertical one: width + height multiply-adds per pixel instead
+ *     of width * height.
+ *   - FFT multiplies the Fourier transforms of blocks of the picture by the
+ *     transform of the kernel (overlap-save), which costs about the same
+ *     however large the kernel is. Two components are transformed at once,
+ *     as the real and imaginary parts of one complex block.
+ *
+ * All of them work on the picture one component at a time, as a plane of
+ * floats, in parallel bands of rows or blocks (see TileScheduler), and the
+ * results are rounded and clipped back into packed pixels at the end. The
+ * three agree to within rounding: a component can differ by one between
+ * them where the exact result is very close to a half.
+ *
+ * Where a kernel reaches past the edge of the picture, Edge says what it
+ * sees there.
+ */
+public class Convolution {
+
+    /**
+     * What a kernel sees outside the picture.
+     */
+    public enum Edge {
+        /**
+         * The nearest pixel on the edge of the picture.
+         */
+        CLAMP,
+
+        /**
+         * The pixel the kernel is centered on. Kernels that sum to zero,
+         * like emboss and edge detection, then give nothing at all at the
+         * edges of the picture instead of a false edge. Only DIRECT can do
+         * this, so it is always used.
+         */
+        CENTER
+    }
+
+    /**
+     * The ways of running a kernel; see the class comment.
+     */
+    enum Method { DIRECT, SEPARABLE, FFT }
+
+    /**
+     * Kernels that are not separable and have more weights than this go
+     * through the FFT. Around here, a 2D FFT of a block costs less per
+     * pixel than the multiply-adds.
+     */
+    static final int FFT_WEIGHTS = 13 * 13;
+
+    // The smallest FFT block side
+    private static final int MIN_BLOCK = 128;
+
+    /**
+     * Convolves a picture with a kernel, clamping at the edges.
+     *
+     * @return a new picture
+     */
+    public static PixelPicture convolve(PixelPicture pic, ConvolutionKernel k) {
+        return convolve(pic, k, Edge.CLAMP);
+    }
+
+    /**
+     * Convolves a picture with a kernel.
+     *
+     * @return a new picture
+     */
+    public static PixelPicture convolve(PixelPicture pic, ConvolutionKernel k, Edge edge) {
+        return convolve(pic, k, edge, methodFor(k, edge));
+    }
+
+    /**
+     * Convolves a picture with a kernel in the given way. SEPARABLE needs a
+     * separable kernel, and only DIRECT supports Edge.CENTER.
+     */
+    static PixelPicture convolve(PixelPicture pic, ConvolutionKernel k, Edge edge, Method method) {
+        if (edge == Edge.CENTER && method != Method.DIRECT) {
+            throw new IllegalArgumentException(method + " cannot use the CENTER edge");
+        }
+        int w = pic.getWidth();
+        int h = pic.getHeight();
+        int[] bmp = pic.getPixels();
+        int n = w * h;
+        int[] out = new int[n];
+        float[][] src = { new float[n], method == Method.FFT ? new float[n] : null };
+        float[][] dst = { new float[n], method == Method.FFT ? new float[n] : null };
+        float[] tmp = method == Method.SEPARABLE ? new float[n] : null;
+
+        if (method == Method.FFT) {
+            // red and green together, then blue alone
+            component(bmp, 16, src[0]);
+            component(bmp, 8, src[1]);
+            fft(src[0], src[1], dst[0], dst[1], w, h, k);
+            deposit(dst[0], 16, k.getBias(), out);
+            deposit(dst[1], 8, k.getBias(), out);
+            component(bmp, 0, src[0]);
+            fft(src[0], null, dst[0], null, w, h, k);
+            deposit(dst[0], 0, k.getBias(), out);
+        } else {
+            for (int shift = 16; shift >= 0; shift -= 8) {
+                component(bmp, shift, src[0]);
+                plane(src[0], dst[0], tmp, w, h, k, edge, method);
+                deposit(dst[0], shift, k.getBias(), out);
+            }
+        }
+        return PixelPicture.wrap(w, h, out);
+    }
+
+    /**
+     * The way convolve runs a kernel by default.
+     */
+    static Method methodFor(ConvolutionKernel k, Edge edge) {
+        if (edge == Edge.CENTER) {
+            return Method.DIRECT;
+        }
+        if (k.isSeparable()) {
+            return Method.SEPARABLE;
+        }
+        return k.getWidth() * k.getHeight() > FFT_WEIGHTS ? Method.FFT : Method.DIRECT;
+    }
+
+    /**
+     * Convolves one plane of w * h floats into dst, without the bias. tmp
+     * is scratch space of the same size, needed only for SEPARABLE.
+     */
+    static void plane(float[] src, float[] dst, float[] tmp, int w, int h,
+                      ConvolutionKernel k, Edge edge, Method method) {
+        switch (method) {
+            case SEPARABLE:
+                if (!k.isSeparable() || edge != Edge.CLAMP) {
+                    throw new IllegalArgumentException("cannot run this kernel as two passes");
+                }
+                double[] row = k.row();
+                double[] column = k.column();
+                // a row of weights is a 1 x width kernel, a column height x 1
+                TileScheduler.forEachRow(w, h, 1, (start, end) -> {
+                    for (int y = start; y < end; y++) {
+                        Arrays.fill(tmp, y * w, y * w + w, 0);
+                        for (int i = 0; i < row.length; i++) {
+                            tap(src, tmp, w, h, y, i - row.length / 2, 0, (float) row[i], edge);
+                        }
+                    }
+                });
+                TileScheduler.forEachRow(w, h, 1, (start, end) -> {
+                    for (int y = start; y < end; y++) {
+                        Arrays.fill(dst, y * w, y * w + w, 0);
+                        for (int j = 0; j < column.length; j++) {
+                            tap(tmp, dst, w, h, y, 0, j - column.length / 2, (float) column[j], edge);
+                        }
+                    }
+                });
+                return;
+            case FFT:
+                fft(src, null, dst, null, w, h, k);
+                return;
+            default:
+                int rx = k.getWidth() / 2;
+                int ry = k.getHeight() / 2;
+                TileScheduler.forEachRow(w, h, 1, (start, end) -> {
+                    for (int y = start; y < end; y++) {
+                        Arrays.fill(dst, y * w, y * w + w, 0);
+                        for (int j = 0; j < k.getHeight(); j++) {
+                            for (int i = 0; i < k.getWidth(); i++) {
+                                float wt = (float) k.weight(i, j);
+                                if (wt != 0) {
+                                    tap(src, dst, w, h, y, i - rx, j - ry, wt, edge);
+                                }
+                            }
+                        }
+                    }
+                });
+        }
+    }
+
+    // Adds wt times the pixel at offset (dx, dy) from each pixel of row y
+    // of src to the same pixel of dst
+    private static void tap(float[] src, float[] dst, int w, int h, int y,
+                            int dx, int dy, float wt, Edge edge) {
+        int out = y * w;
+        int sy = y + dy;
+        if (sy < 0 || sy >= h) {
+            if (edge == Edge.CENTER) {
+                for (int x = 0; x < w; x++) {
+                    dst[out + x] += wt * src[out + x];
+                }
+                return;
+            }
+            sy = Math.min(Math.max(0, sy), h - 1);
+        }
+        int in = sy * w;
+        // x + dx is inside the row for x in [lo, hi)
+        int lo = Math.min(w, Math.max(0, -dx));
+        int hi = Math.max(lo, Math.min(w, w - dx));
+        for (int x = 0; x < lo; x++) {
+            dst[out + x] += wt * (edge == Edge.CENTER ? src[out + x] : src[in]);
+        }
+        for (int x = lo; x < hi; x++) {
+            dst[out + x] += wt * src[in + x + dx];
+        }
+        for (int x = hi; x < w; x++) {
+            dst[out + x] += wt * (edge == Edge.CENTER ? src[out + x] : src[in + w - 1]);
+        }
+    }
+
+    // Copies one component of packed pixels into a plane
+    static void component(int[] bmp, int shift, float[] plane) {
+        TileScheduler.forEachPixel(bmp.length, (start, end) -> {
+            for (int i = start; i < end; i++) {
+                plane[i] = (bmp[i] >> shift) & 0xff;
+            }
+        });
+    }
+
+    // Rounds and clips a plane, plus a bias, into one component of out
+    static void deposit(float[] plane, int shift, double bias, int[] out) {
+        float b = (float) bias;
+        TileScheduler.forEachPixel(out.length, (start, end) -> {
+            for (int i = start; i < end; i++) {
+                int v = Math.round(plane[i] + b);
+                out[i] |= Math.min(Math.max(0, v), 255) << shift;
+            }
+        });
+    }
+
+    /*
+     * Overlap-save convolution of one or two planes (a and b, which may be
+     * null) with a kernel, clamping at the edges.
+     *
+     * The output is cut into blocks of side T. For a block at (ox, oy) the
+     * input from (ox - rx, oy - ry), N = T + kernel side - 1 pixels on a
+     * side, is transformed, multiplied by the transform of the kernel, and
+     * transformed back. Entry (t, s) of the result is the correlation of the
+     * kernel with the input starting at (t, s), which is the output pixel
+     * (ox + t, oy + s): the wrap-around of the circular convolution only
+     * touches entries past T.
+     */
+    private static void fft(float[] a, float[] b, float[] outA, float[] outB,
+                            int w, int h, ConvolutionKernel k) {
+        int kw = k.getWidth();
+        int kh = k.getHeight();
+        int size = MIN_BLOCK;
+        while (size < 2 * Math.max(kw, kh)) {
+            size *= 2;
+        }
+        final int n = size;
+        int tw = n - kw + 1;
+        int th = n - kh + 1;
+        int rx = kw / 2;
+        int ry = kh / 2;
+        FFT f = new FFT(n);
+
+        // the kernel at (-i, -j), so that convolving with it correlates
+        double[] kre = new double[n * n];
+        double[] kim = new double[n * n];
+        for (int j = 0; j < kh; j++) {
+            for (int i = 0; i < kw; i++) {
+                kre[((n - j) % n) * n + (n - i) % n] = k.weight(i, j);
+            }
+        }
+        f.forward2d(kre, kim);
+
+        int across = (w + tw - 1) / tw;
+        int down = (h + th - 1) / th;
+        TileScheduler.run(down, 1, (start, end) -> {
+            double[] re = new double[n * n];
+            double[] im = new double[n * n];
+            for (int by = start; by < end; by++) {
+                for (int bx = 0; bx < across; bx++) {
+                    int ox = bx * tw;
+                    int oy = by * th;
+                    for (int v = 0; v < n; v++) {
+                        int sy = Math.min(Math.max(0, oy - ry + v), h - 1) * w;
+                        for (int u = 0; u < n; u++) {
+                            int sx = Math.min(Math.max(0, ox - rx + u), w - 1);
+                            re[v * n + u] = a[sy + sx];
+                            im[v * n + u] = b == null ? 0 : b[sy + sx];
+                        }
+                    }
+                    f.forward2d(re, im);
+                    for (int i = 0; i < n * n; i++) {
+                        double r = re[i] * kre[i] - im[i] * kim[i];
+                        im[i] = re[i] * kim[i] + im[i] * kre[i];
+                        re[i] = r;
+                    }
+                    f.inverse2d(re, im);
+                    int yEnd = Math.min(th, h - oy);
+                    int xEnd = Math.min(tw, w - ox);
+                    for (int s = 0; s < yEnd; s++) {
+                        int o = (oy + s) * w + ox;
+                        for (int t = 0; t < xEnd; t++) {
+                            outA[o + t] = (float) re[s * n + t];
+                            if (outB != null) {
+                                outB[o + t] = (float) im[s * n + t];
+                            }
+                        }
+                    }
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,206 @@
+/**
+ * The weights of a convolution, for Convolution.
+ *
+ * A kernel is a rectangle of weights with odd sides, centered on the pixel
+ * being computed: the new value of a component is the sum, over the kernel,
+ * of each weight times the component of the pixel under it, plus a bias.
+ * Weights are given row by row, top row first. Kernels are immutable.
+ */
+public final class ConvolutionKernel {
+
+    private final int width;
+    private final int height;
+    private final double[] weights;
+    private final double bias;
+
+    // Set if the kernel is the outer product column * row
+    private final double[] column;
+    private final double[] row;
+
+    /**
+     * Creates a kernel.
+     *
+     * @param width   the number of columns, which must be odd
+     * @param height  the number of rows, which must be odd
+     * @param weights the weights, row by row, width * height of them
+     * @throws IllegalArgumentException if the sizes are not odd and
+     *         positive, or do not match the number of weights
+     */
+    public ConvolutionKernel(int width, int height, double... weights) {
+        this(width, height, weights, 0);
+    }
+
+    private ConvolutionKernel(int width, int height, double[] weights, double bias) {
+        if (width <= 0 || height <= 0 || width % 2 == 0 || height % 2 == 0) {
+            throw new IllegalArgumentException("kernel sides must be odd, got "
+                                               + width + "x" + height);
+        }
+        if (weights.length != width * height) {
+            throw new IllegalArgumentException("expected " + width * height
+                                               + " weights, got " + weights.length);
+        }
+        this.width = width;
+        this.height = height;
+        this.weights = weights.clone();
+        this.bias = bias;
+
+        double[][] factors = factor(width, height, this.weights);
+        column = factors == null ? null : factors[0];
+        row = factors == null ? null : factors[1];
+    }
+
+    /**
+     * This kernel, adding the given bias to every component instead.
+     */
+    public ConvolutionKernel withBias(double bias) {
+        return new ConvolutionKernel(width, height, weights, bias);
+    }
+
+    /**
+     * A separable kernel: the outer product of a column and a row, so that
+     * the weight at (x, y) is column[y] * row[x].
+     */
+    public static ConvolutionKernel separable(double[] column, double[] row) {
+        double[] w = new double[column.length * row.length];
+        for (int y = 0; y < column.length; y++) {
+            for (int x = 0; x < row.length; x++) {
+                w[y * row.length + x] = column[y] * row[x];
+            }
+        }
+        return new ConvolutionKernel(row.length, column.length, w);
+    }
+
+    /**
+     * Emboss, as in ItalyEmboss.png: each component minus the same
+     * component of the pixel up and to the left, around a middle gray.
+     * See AdvancedManipulations.emboss.
+     */
+    public static ConvolutionKernel emboss() {
+        return new ConvolutionKernel(3, 3,
+                -1, 0, 0,
+                 0, 1, 0,
+                 0, 0, 0).withBias(127);
+    }
+
+    /**
+     * Sharpen: each pixel plus four times its difference from the mean of
+     * its four neighbors.
+     */
+    public static ConvolutionKernel sharpen() {
+        return new ConvolutionKernel(3, 3,
+                 0, -1,  0,
+                -1,  5, -1,
+                 0, -1,  0);
+    }
+
+    /**
+     * A normalized Gaussian blur with the given standard deviation in
+     * pixels, cut off at three standard deviations.
+     *
+     * @throws IllegalArgumentException if sigma is not positive
+     */
+    public static ConvolutionKernel gaussian(double sigma) {
+        if (!(sigma > 0)) {
+            throw new IllegalArgumentException("sigma must be positive, got " + sigma);
+        }
+        int radius = (int) Math.ceil(3 * sigma);
+        double[] g = new double[2 * radius + 1];
+        double sum = 0;
+        for (int i = -radius; i <= radius; i++) {
+            g[i + radius] = Math.exp(-(i * i) / (2 * sigma * sigma));
+            sum += g[i + radius];
+        }
+        for (int i = 0; i < g.length; i++) {
+            g[i] /= sum;
+        }
+        return separable(g, g);
+    }
+
+    /**
+     * The horizontal Sobel operator, which responds to vertical edges.
+     */
+    public static ConvolutionKernel sobelX() {
+        return separable(new double[] { 1, 2, 1 }, new double[] { -1, 0, 1 });
+    }
+
+    /**
+     * The vertical Sobel operator, which responds to horizontal edges.
+     */
+    public static ConvolutionKernel sobelY() {
+        return separable(new double[] { -1, 0, 1 }, new double[] { 1, 2, 1 });
+    }
+
+    /**
+     * Get the number of columns.
+     */
+    public int getWidth() { return width; }
+
+    /**
+     * Get the number of rows.
+     */
+    public int getHeight() { return height; }
+
+    /**
+     * Get the bias added to every component.
+     */
+    public double getBias() { return bias; }
+
+    /**
+     * The weight at column x and row y, counted from the top left.
+     */
+    public double weight(int x, int y) {
+        return weights[y * width + x];
+    }
+
+    /**
+     * Whether the kernel is the outer product of a column and a row, so
+     * that it can be applied as two one-dimensional passes.
+     */
+    public boolean isSeparable() {
+        return column != null;
+    }
+
+    /**
+     * The column factor of a separable kernel, or null.
+     */
+    double[] column() { return column; }
+
+    /**
+     * The row factor of a separable kernel, or null.
+     */
+    double[] row() { return row; }
+
+    // Splits weights into column * row if the matrix has rank 1, or
+    // returns null
+    private static double[][] factor(int width, int height, double[] w) {
+        int pivot = 0;
+        for (int i = 1; i < w.length; i++) {
+            if (Math.abs(w[i]) > Math.abs(w[pivot])) {
+                pivot = i;
+            }
+        }
+        double max = Math.abs(w[pivot]);
+        if (max == 0) {
+            return null;
+        }
+        int px = pivot % width;
+        int py = pivot / width;
+        double[] column = new double[height];
+        double[] row = new double[width];
+        for (int y = 0; y < height; y++) {
+            column[y] = w[y * width + px];
+        }
+        for (int x = 0; x < width; x++) {
+            row[x] = w[py * width + x] / w[pivot];
+        }
+        double tolerance = 1e-9 * max;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                if (Math.abs(column[y] * row[x] - w[y * width + x]) > tolerance) {
+                    return null;
+                }
+            }
+        }
+        return new double[][] { column, row };
+    }
+}
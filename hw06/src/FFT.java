@@ -0,0 +1,98 @@
+/**
+ * Fast Fourier transforms of square blocks of complex numbers, for the FFT
+ * path of Convolution.
+ *
+ * A block of n x n values is kept as two row-major arrays, the real and
+ * imaginary parts. The side n must be a power of two. The transforms are the
+ * iterative radix-2 Cooley-Tukey algorithm, on every row and then on every
+ * column. An FFT object holds the tables for one size and can be shared
+ * between threads.
+ */
+final class FFT {
+
+    private final int n;
+    private final int[] reversed;   // bit-reversal permutation
+    private final double[] cos;     // cos(2 pi k / n), for k < n / 2
+    private final double[] sin;
+
+    FFT(int n) {
+        if (n < 2 || Integer.bitCount(n) != 1) {
+            throw new IllegalArgumentException("FFT size must be a power of two, got " + n);
+        }
+        this.n = n;
+        reversed = new int[n];
+        int bits = Integer.numberOfTrailingZeros(n);
+        for (int i = 0; i < n; i++) {
+            reversed[i] = Integer.reverse(i) >>> (32 - bits);
+        }
+        cos = new double[n / 2];
+        sin = new double[n / 2];
+        for (int k = 0; k < n / 2; k++) {
+            cos[k] = Math.cos(2 * Math.PI * k / n);
+            sin[k] = Math.sin(2 * Math.PI * k / n);
+        }
+    }
+
+    /**
+     * Transforms a block in place.
+     */
+    void forward2d(double[] re, double[] im) {
+        for (int row = 0; row < n; row++) {
+            transform(re, im, row * n, 1);
+        }
+        for (int col = 0; col < n; col++) {
+            transform(re, im, col, n);
+        }
+    }
+
+    /**
+     * Undoes forward2d in place: the transform of the complex conjugate,
+     * conjugated and divided by n * n.
+     */
+    void inverse2d(double[] re, double[] im) {
+        for (int i = 0; i < im.length; i++) {
+            im[i] = -im[i];
+        }
+        forward2d(re, im);
+        double scale = 1.0 / ((double) n * n);
+        for (int i = 0; i < re.length; i++) {
+            re[i] *= scale;
+            im[i] *= -scale;
+        }
+    }
+
+    // Transforms the n values at off, off + stride, off + 2 * stride, ...
+    private void transform(double[] re, double[] im, int off, int stride) {
+        for (int i = 0; i < n; i++) {
+            int j = reversed[i];
+            if (j > i) {
+                int a = off + i * stride;
+                int b = off + j * stride;
+                double t = re[a];
+                re[a] = re[b];
+                re[b] = t;
+                t = im[a];
+                im[a] = im[b];
+                im[b] = t;
+            }
+        }
+        for (int size = 2; size <= n; size *= 2) {
+            int half = size / 2;
+            int step = n / size;
+            for (int start = 0; start < n; start += size) {
+                for (int k = 0; k < half; k++) {
+                    double wr = cos[k * step];
+                    double wi = -sin[k * step];
+                    int a = off + (start + k) * stride;
+                    int b = a + half * stride;
+                    double xr = re[b] * wr - im[b] * wi;
+                    double xi = re[b] * wi + im[b] * wr;
+                    re[b] = re[a] - xr;
+                    im[b] = im[a] - xi;
+                    re[a] += xr;
+                    im[a] += xi;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,158 @@
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import javax.swing.SwingUtilities;
+
+/**
+ * Runs filters for the GUI on a background thread, so that the window stays
+ * responsive while a large picture is processed.
+ *
+ * Only the most recently submitted filter matters. Submitting a new one
+ * cancels the one that is running, which stops at its next tile (see
+ * TileScheduler.Monitor), and any that are still waiting to start, so a
+ * burst of clicks or parameter changes only runs the last of them.
+ *
+ * Submit and cancel must be called on the event dispatch thread, and every
+ * callback is made on it as well. A result is only delivered if its filter
+ * has not been cancelled in the meantime.
+ */
+public class FilterRunner {
+
+    /**
+     * Receives the progress of the filter that is running.
+     */
+    public interface Listener {
+        /**
+         * The named filter is running and has done the given percentage of
+         * its current pass over the picture.
+         */
+        void progress(String name, int percent);
+
+        /**
+         * No filter is running any more.
+         */
+        void idle();
+    }
+
+    private final ExecutorService worker = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "pennstagram-filter");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final Listener listener;
+
+    // The most recently submitted job, or null once it is done
+    private Job<?> current;
+
+    /**
+     * Creates a runner that reports progress to the given listener.
+     */
+    public FilterRunner(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Runs a filter in the background, cancelling any filter that has not
+     * finished yet. Everything the event thread will need from the result,
+     * such as the pixels of a picture that is still a view (see
+     * PictureView), should be worked out by the filter.
+     *
+     * @param name   the name of the filter, for progress reports
+     * @param filter computes the result, usually a new picture
+     * @param done   receives the result
+     * @param failed receives the exception if the filter throws one
+     */
+    public <T> void submit(String name, Supplier<T> filter,
+                           Consumer<T> done, Consumer<RuntimeException> failed) {
+        cancel();
+        Job<T> job = new Job<T>(name, filter, done, failed);
+        current = job;
+        listener.progress(name, 0);
+        worker.execute(job);
+    }
+
+    /**
+     * Cancels the filter that is running or waiting, if any. Its result is
+     * never delivered.
+     */
+    public void cancel() {
+        if (current != null) {
+            current.cancelled = true;
+            current = null;
+            listener.idle();
+        }
+    }
+
+    /**
+     * Determines whether a filter is running or waiting.
+     */
+    public boolean isBusy() {
+        return current != null;
+    }
+
+    private class Job<T> implements Runnable, TileScheduler.Monitor {
+        private final String name;
+        private final Supplier<T> filter;
+        private final Consumer<T> done;
+        private final Consumer<RuntimeException> failed;
+
+        volatile boolean cancelled;
+        // the last percentage posted to the listener, to post only changes
+        private volatile int shown;
+
+        Job(String name, Supplier<T> filter,
+            Consumer<T> done, Consumer<RuntimeException> failed) {
+            this.name = name;
+            this.filter = filter;
+            this.done = done;
+            this.failed = failed;
+        }
+
+        @Override
+        public void run() {
+            if (cancelled) {
+                return; // superseded before it started
+            }
+            try {
+                T result = TileScheduler.monitored(this, filter);
+                deliver(() -> done.accept(result));
+            } catch (CancellationException e) {
+                // superseded while running; nobody is waiting for it
+            } catch (RuntimeException e) {
+                deliver(() -> failed.accept(e));
+            }
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public void progress(int count, int total) {
+            int percent = (int) (100L * count / total);
+            if (percent != shown) {
+                shown = percent;
+                SwingUtilities.invokeLater(() -> {
+                    if (!cancelled) {
+                        listener.progress(name, percent);
+                    }
+                });
+            }
+        }
+
+        private void deliver(Runnable callback) {
+            SwingUtilities.invokeLater(() -> {
+                if (!cancelled) {
+                    current = null;
+                    listener.idle();
+                    callback.run();
+                }
+            });
+        }
+    }
+}
@@ -1,19 +1,26 @@
 import java.awt.BorderLayout;
 import java.awt.GridLayout;
+import java.awt.Image;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.MouseEvent;
+import java.text.ParseException;
+import java.util.function.UnaryOperator;
 import javax.swing.Box;
+import javax.swing.Icon;
+import javax.swing.ImageIcon;
 import javax.swing.JButton;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.JProgressBar;
+import javax.swing.JSpinner;
 import javax.swing.JTextField;
+import javax.swing.SpinnerNumberModel;
 import javax.swing.SwingUtilities;
+import javax.swing.event.ChangeListener;
 import javax.swing.event.MouseInputAdapter;
-import java.util.Deque;
-import java.util.LinkedList;
 
 /**
  * The graphical user interface for the Pennstagram project.
@@ -27,27 +34,182 @@ public class GUI implements Runnable {
 	private PixelPicture currentPic = 
 			new PixelPicture(defaultImageURL);
 
-	private Deque<PixelPicture> images = new LinkedList<PixelPicture>();
+	// Undo keeps only the tiles each change touched, within a memory budget
+	// (in MB) that can be set with -Dpennstagram.undoMB=...; with
+	// -Dpennstagram.undoSpill=true old steps go to a temp file instead of
+	// being forgotten, up to -Dpennstagram.undoSpillMB=... (1024 by default).
+	private final UndoHistory images = new UndoHistory(
+			Long.getLong("pennstagram.undoMB", 256) << 20,
+			Boolean.getBoolean("pennstagram.undoSpill"),
+			Long.getLong("pennstagram.undoSpillMB", 1024) << 20);
+
+	// Results of manipulations by the content of the picture they were run
+	// on, so that running one again (after an undo, say) is instant. The
+	// budget (in MB) can be set with -Dpennstagram.cacheMB=...
+	private final ResultCache results = new ResultCache(
+			Long.getLong("pennstagram.cacheMB", 256) << 20);
 
 	private final JLabel imageLabel = new JLabel(currentPic.toImageIcon());
 
 	private final JFrame frame = new JFrame("Pennstagram");
 
-	// update the currently displayed image, saving the old version for undo.	
-	private void changeImage(PixelPicture pnew) {
+	// Manipulations run in the background so the window stays responsive;
+	// the bar shows which one is running and how far along it is.
+	private final JProgressBar progress = new JProgressBar(0, 100);
+
+	private final FilterRunner runner = new FilterRunner(new FilterRunner.Listener() {
+		public void progress(String name, int percent) {
+			progress.setValue(percent);
+			progress.setString(name + " " + percent + "%");
+		}
+		public void idle() {
+			progress.setValue(0);
+			progress.setString("Ready");
+		}
+	});
+
+	// Previews are rendered on a smaller copy of the picture with at most
+	// this many pixels, from a cache of halved copies of the current picture.
+	private static final int PREVIEW_PIXELS = 1 << 18;
+	private MipCache mips;
+
+	// A manipulation with one parameter. level is the mip level the picture
+	// was shrunk to (0 for the full picture), so that parameters measured in
+	// pixels can be shrunk with it.
+	private interface Tunable {
+		PixelPicture apply(PixelPicture pic, Number value, int level);
+	}
+
+	// run a manipulation of the current picture in the background, then
+	// show the result. Starting another one first cancels this one.
+	private void runFilter(final String name, final UnaryOperator<PixelPicture> filter) {
+		runFilter(name, name, filter);
+	}
+
+	// the same, with the results cached under key, which must name the
+	// manipulation and all its parameters; null if it cannot be cached
+	private void runFilter(final String name, final String key,
+			final UnaryOperator<PixelPicture> filter) {
+		final PixelPicture source = currentPic;
+		runner.submit(name,
+				() -> change(source,
+						key == null ? filter.apply(source) : results.apply(source, key, filter)),
+				result -> changeImage(result.pic, result.undo),
+				ex -> {
+					showIcon(currentPic.toImageIcon());
+					JOptionPane.showMessageDialog(
+							frame,
+							name + " failed\n" + ex.getMessage(),
+							"Alert",
+							JOptionPane.ERROR_MESSAGE
+							);
+				});
+	}
+
+	// ask for the parameter of a manipulation with a spinner, showing a
+	// preview computed on a low-resolution copy of the picture every time
+	// the value changes. The full picture is only processed on OK. The copy
+	// is made by the first preview, in the background like the rest of it.
+	private void tune(final String name, String prompt,
+			SpinnerNumberModel model, final Tunable op) {
+		if (mips == null || mips.getSource() != currentPic) {
+			mips = new MipCache(currentPic);
+		}
+		final MipCache levels = mips;
+		final int level = levels.levelFor(PREVIEW_PIXELS);
+		final int width = currentPic.getWidth();
+		final int height = currentPic.getHeight();
+
+		final JSpinner spinner = new JSpinner(model);
+		ChangeListener preview = e -> {
+			final Number value = (Number) spinner.getValue();
+			runner.submit(name + " preview",
+					() -> drawn(results.apply(levels.getLevel(level),
+							tunedKey(name, value, level), pic -> op.apply(pic, value, level))),
+					result -> showIcon(new ImageIcon(result.toImageIcon().getImage()
+							.getScaledInstance(width, height, Image.SCALE_FAST))),
+					ex -> { });
+		};
+		spinner.addChangeListener(preview);
+		preview.stateChanged(null);
+
+		JPanel panel = new JPanel();
+		panel.add(new JLabel(prompt));
+		panel.add(spinner);
+		int answer = JOptionPane.showConfirmDialog(frame, panel, name,
+				JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE);
+		runner.cancel();
+		if (answer == JOptionPane.OK_OPTION) {
+			try {
+				spinner.commitEdit();
+			} catch (ParseException ex) {
+				// keep the last valid value
+			}
+			final Number value = (Number) spinner.getValue();
+			runFilter(name, tunedKey(name, value, 0), pic -> op.apply(pic, value, 0));
+		} else {
+			showIcon(currentPic.toImageIcon());
+		}
+	}
+
+	// the cache key of a tuned manipulation run at a level of detail; a
+	// preview of a small picture is run on the picture itself, and shares
+	// its result with the final run
+	private static String tunedKey(String name, Number value, int level) {
+		return level == 0 ? name + " " + value : name + " " + value + " at level " + level;
+	}
+
+	private void showIcon(Icon icon) {
+		imageLabel.setIcon(icon);
+		imageLabel.repaint();
+		frame.pack();
+	}
+
+	// A new picture and the step that undoes it
+	private static final class Change {
+		final PixelPicture pic;
+		final UndoHistory.Step undo;
+
+		Change(PixelPicture pic, UndoHistory.Step undo) {
+			this.pic = pic;
+			this.undo = undo;
+		}
+	}
+
+	// in the background, after a manipulation of source: draw the new
+	// picture, and work out how to undo it and make room for that in the
+	// history, so that the event thread only has to push the step
+	private Change change(PixelPicture source, PixelPicture pnew) {
+		drawn(pnew);
+		if (pnew == source) {
+			return new Change(pnew, null);
+		}
+		UndoHistory.Step undo = UndoHistory.diff(source, pnew);
+		images.makeRoom(undo);
+		return new Change(pnew, undo);
+	}
+
+	// draw the pixels of a picture that may still be a view (see
+	// PictureView), in the background rather than on the event thread
+	private static PixelPicture drawn(PixelPicture pic) {
+		pic.materialize();
+		return pic;
+	}
+
+	// update the currently displayed image, saving the step that undoes
+	// the change, if any.	
+	private void changeImage(PixelPicture pnew, UndoHistory.Step undo) {
 		  if (pnew != null & pnew == currentPic) {
 				JOptionPane.showMessageDialog(frame,
 					"This operation has no effect (yet).\n",
 					"Alert",
 					JOptionPane.ERROR_MESSAGE);
 		  } else {
-				if (currentPic != null) {
-					 images.push(currentPic);
+				if (undo != null) {
+					 images.push(undo);
 				}
 				currentPic = pnew;
-				imageLabel.setIcon(currentPic.toImageIcon());
-				imageLabel.repaint();
-				frame.pack();
+				showIcon(currentPic.toImageIcon());
 		}
 	}
 
@@ -72,6 +234,9 @@ public class GUI implements Runnable {
 		menubar.add(save);
 		menubar.add(undo);
 		menubar.add(quit);
+		progress.setStringPainted(true);
+		progress.setString("Ready");
+		menubar.add(progress);
 
 		load.addActionListener(new ActionListener() {
 			public void actionPerformed(ActionEvent e) {
@@ -82,18 +247,18 @@ public class GUI implements Runnable {
 								"Load new image",
 								JOptionPane.PLAIN_MESSAGE
 						);
-				try {
-					if (result != null) {
-						changeImage(new PixelPicture(result));
-						images.clear();
-					}
-				} catch (RuntimeException ex) {
-					JOptionPane.showMessageDialog(
-							frame,
-							"Cannot load file\n" + ex.getMessage(), 
-							"Alert",
-							JOptionPane.ERROR_MESSAGE
-							);
+				if (result != null) {
+					runner.submit("Load", () -> new PixelPicture(result),
+							pic -> {
+								changeImage(pic, null);
+								images.clear();
+							},
+							ex -> JOptionPane.showMessageDialog(
+									frame,
+									"Cannot load file\n" + ex.getMessage(), 
+									"Alert",
+									JOptionPane.ERROR_MESSAGE
+									));
 				}
 			}
 		});
@@ -119,9 +284,11 @@ public class GUI implements Runnable {
 		});
 		undo.addActionListener(new ActionListener() {
 			public void actionPerformed(ActionEvent e){
+				runner.cancel();
 				if (!images.isEmpty()) {
+					PixelPicture previous = images.undo(currentPic);
 					currentPic = null;
-					changeImage( images.removeFirst() );
+					changeImage( previous, null );
 				}
 				else {
 					JOptionPane.showMessageDialog(
@@ -146,6 +313,8 @@ public class GUI implements Runnable {
 		toolbar.setLayout(new GridLayout(0,1));
 		final JButton rotateCW  = new JButton("RotateCW");
 		final JButton rotateCCW = new JButton("RotateCCW");
+		final JButton mirrorH   = new JButton("Mirror horizontal");
+		final JButton mirrorV   = new JButton("Mirror vertical");
 
 		
 		final JButton border    = new JButton("Border");
@@ -161,6 +330,8 @@ public class GUI implements Runnable {
 
 		toolbar.add(rotateCW);
 		toolbar.add(rotateCCW);
+		toolbar.add(mirrorH);
+		toolbar.add(mirrorV);
 
 		
 		toolbar.add(border);
@@ -176,8 +347,7 @@ public class GUI implements Runnable {
 
 		border.addActionListener(new ActionListener() {
 			public void actionPerformed(ActionEvent arg0) {
-				PixelPicture pn = SimpleManipulations.border(currentPic, 10, Pixel.BLACK);
-				changeImage(pn);
+				runFilter("Border", pic -> SimpleManipulations.border(pic, 10, Pixel.BLACK));
 			}
 
 		});
@@ -210,7 +380,9 @@ public class GUI implements Runnable {
 						r = Double.parseDouble(rField.getText());
 						g = Double.parseDouble(gField.getText());
 						b = Double.parseDouble(bField.getText());
-						changeImage(SimpleManipulations.scaleColors(currentPic, r,g,b));
+						final double fr = r, fg = g, fb = b;
+						runFilter("Color scale", "Color scale " + fr + " " + fg + " " + fb,
+								pic -> SimpleManipulations.scaleColors(pic, fr, fg, fb));
 					} else { return; }
 				} catch (RuntimeException ex) { 
 					JOptionPane.showMessageDialog(
@@ -232,30 +404,32 @@ public class GUI implements Runnable {
 								"Load new image",
 								JOptionPane.PLAIN_MESSAGE
 						); 
-				try {
-					if (result != null) {
-						changeImage(SimpleManipulations.alphaBlend(0.5, 
-								currentPic, new PixelPicture(result)));
-					}
-				} catch (RuntimeException ex) {
-					JOptionPane.showMessageDialog(
-							frame,
-							"Cannot load file: " + result + "\n" + ex.getMessage(), 
-							"Alert",
-							JOptionPane.ERROR_MESSAGE
-							);
+				if (result != null) {
+					// the file may change, so the result is not cached
+					runFilter("alpha-Blend", null, pic -> SimpleManipulations.alphaBlend(0.5, 
+							pic, new PixelPicture(result)));
 				}
 			}
 		});
 
 		rotateCW.addActionListener(new ActionListener() {
 			public void actionPerformed(ActionEvent e) {
-				changeImage(SimpleManipulations.rotateCW(currentPic));
+				runFilter("RotateCW", SimpleManipulations::rotateCW);
 			}
 		});
 		rotateCCW.addActionListener(new ActionListener() {
 			public void actionPerformed(ActionEvent e) {
-				changeImage(SimpleManipulations.rotateCCW(currentPic));
+				runFilter("RotateCCW", SimpleManipulations::rotateCCW);
+			}
+		});
+		mirrorH.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				runFilter("Mirror horizontal", SimpleManipulations::mirrorHorizontal);
+			}
+		});
+		mirrorV.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				runFilter("Mirror vertical", SimpleManipulations::mirrorVertical);
 			}
 		});
 		
@@ -275,53 +449,29 @@ public class GUI implements Runnable {
 						"GrayScaleLuminosity");
 				if (result == null)
 					return;
-				PixelPicture pnew = null;
+				UnaryOperator<PixelPicture> op = null;
 				if (result.equals("ColorInvert")) 
-					pnew = SimpleManipulations.invertColors(currentPic);
+					op = SimpleManipulations::invertColors;
 				else if (result.equals("GrayScaleAverage"))
-					pnew = SimpleManipulations.grayScaleAverage(currentPic);
+					op = SimpleManipulations::grayScaleAverage;
 				else if (result.equals("GrayScaleLuminosity"))
-					pnew = SimpleManipulations.grayScaleLuminosity(currentPic);
-				if (pnew != null) {
-					 changeImage (pnew);
+					op = SimpleManipulations::grayScaleLuminosity;
+				if (op != null) {
+					 runFilter(result, op);
 				}
 			}
 		});
 		vignette.addActionListener(new ActionListener() {
 			public void actionPerformed(ActionEvent e) {
-				changeImage( SimpleManipulations.vignette(currentPic) );
+				runFilter("Vignette", SimpleManipulations::vignette);
 			}
 		});
 		blur.addActionListener(new ActionListener() {
 			public void actionPerformed(ActionEvent e) {
-				try {
-					String result = (String)JOptionPane.showInputDialog(
-							frame,
-							"Enter a blur radius, a small integer.",
-							"Blur radius",
-							JOptionPane.PLAIN_MESSAGE
-							);
-					if (result != null) {
-						int radius = Integer.parseInt(result);
-						if (radius <= 0 || radius >= 20) {
-							JOptionPane.showMessageDialog(
-									frame,
-									"Blur radius must be > 0 and < 20", 
-									"Alert",
-									JOptionPane.ERROR_MESSAGE
-									);
-							return;
-						}
-						changeImage(AdvancedManipulations.blur(currentPic, radius) );
-					}
-				} catch (NumberFormatException ex) {
-					JOptionPane.showMessageDialog(
-							frame,
-							"Invalid number", 
-							"Alert",
-							JOptionPane.ERROR_MESSAGE
-							);
-				}
+				tune("Blur", "Blur radius, a small integer:",
+						new SpinnerNumberModel(1, 1, 19, 1),
+						(pic, radius, level) -> AdvancedManipulations.blur(pic,
+								Math.max(1, radius.intValue() >> level)));
 			}
 		});
 		flood.addActionListener(new ActionListener() {
@@ -336,66 +486,19 @@ public class GUI implements Runnable {
 		});
 		contrast.addActionListener(new ActionListener() {
 			public void actionPerformed(ActionEvent e) {
-				String result = "";
-				try {
-					result = (String)JOptionPane.showInputDialog(
-							frame,
-							"Enter a contrast multiplier.\n" +
-									"The maximum range is 0 to 255,\n"+
-									"although values above 16 look similar for this image.\n"+
-									"Usually contrast values are small -- between 0.5 and 1.5.",
-									"Contrast multiplier",
-									JOptionPane.PLAIN_MESSAGE
-							);
-					if (result != null) {
-						double d = Double.parseDouble(result);
-						if (d >= 0.0 && d <= 255.0) {
-							changeImage(AdvancedManipulations.adjustContrast(currentPic,d));
-						} else {
-							throw new NumberFormatException();
-						}
-					}
-				} catch (NumberFormatException ex) {
-					JOptionPane.showMessageDialog(
-							frame,
-							"Invalid number " + result, 
-							"Alert",
-							JOptionPane.ERROR_MESSAGE
-							);
-				}
+				tune("Contrast", "<html>Contrast multiplier.<br>" +
+								"The maximum range is 0 to 255,<br>"+
+								"although values above 16 look similar for this image.<br>"+
+								"Usually contrast values are small -- between 0.5 and 1.5.</html>",
+						new SpinnerNumberModel(1.0, 0.0, 255.0, 0.1),
+						(pic, d, level) -> AdvancedManipulations.adjustContrast(pic, d.doubleValue()));
 			}
 		});
 		palette.addActionListener(new ActionListener() {
 			public void actionPerformed(ActionEvent e) {
-				try {
-					String result = (String)JOptionPane.showInputDialog(
-							frame,
-							"Enter the number of colors to which you want to reduce the palette.",
-							"Palette size",
-							JOptionPane.PLAIN_MESSAGE
-							);
-					if (result != null) {
-						int i = Integer.parseInt(result);
-						if (i < 1) {
-							JOptionPane.showMessageDialog(
-									frame,
-									"Expecting a number greater than 0.", 
-									"Alert",
-									JOptionPane.ERROR_MESSAGE
-									);
-
-						} else {
-							changeImage(AdvancedManipulations.reducePalette(currentPic,i));
-						}
-					}
-				} catch (NumberFormatException ex) {
-					JOptionPane.showMessageDialog(
-							frame,
-							"Invalid number", 
-							"Alert",
-							JOptionPane.ERROR_MESSAGE
-							);
-				}
+				tune("Reduce palette", "Number of colors in the palette:",
+						new SpinnerNumberModel(16, 1, 1 << 24, 1),
+						(pic, i, level) -> AdvancedManipulations.reducePalette(pic, i.intValue()));
 			}
 		});
 
@@ -414,14 +517,14 @@ public class GUI implements Runnable {
 		effectbar.add(eighteenNinety);
 		eighteenNinety.addActionListener(new ActionListener() {
 			public void actionPerformed(ActionEvent arg0) {
-				changeImage(Effects.eighteenNinety(currentPic));
+				runFilter("1890s", Effects::eighteenNinety);
 			}
 		});
 		JButton pinHole = new JButton("Pin Hole");
 		effectbar.add(pinHole);
 		pinHole.addActionListener(new ActionListener() {
 			public void actionPerformed(ActionEvent arg0) {
-				changeImage(Effects.pinHole(currentPic));
+				runFilter("Pin Hole", Effects::pinHole);
 			}
 		});
 
@@ -429,7 +532,7 @@ public class GUI implements Runnable {
 		effectbar.add(zombie);
 		zombie.addActionListener(new ActionListener() {
 			public void actionPerformed(ActionEvent arg0) {
-				changeImage(Effects.zombie(currentPic));
+				runFilter("Zombie", Effects::zombie);
 			}
 		});
 
@@ -437,7 +540,7 @@ public class GUI implements Runnable {
 		effectbar.add(plastic);
 		plastic.addActionListener(new ActionListener() {
 			public void actionPerformed(ActionEvent e) {
-				changeImage(Effects.plastic(currentPic));
+				runFilter("Plastic", Effects::plastic);
 			}
 		});
 
@@ -445,7 +548,7 @@ public class GUI implements Runnable {
 		effectbar.add(peaches);
 		peaches.addActionListener(new ActionListener() {
 			public void actionPerformed(ActionEvent e) {
-				changeImage(Effects.peaches(currentPic));
+				runFilter("Peaches", Effects::peaches);
 			}
 		});
 		
@@ -453,7 +556,7 @@ public class GUI implements Runnable {
 		effectbar.add(custom);
 		custom.addActionListener(new ActionListener() {
 			public void actionPerformed(ActionEvent e) {
-				changeImage(Effects.custom(currentPic));
+				runFilter("Custom", Effects::custom);
 			}
 		});
 		
@@ -484,8 +587,10 @@ public class GUI implements Runnable {
 		imageLabel.addMouseListener(new MouseInputAdapter() {
 			@Override
 			public void mouseClicked(MouseEvent e) {
-				changeImage(AdvancedManipulations.flood(currentPic, 
-						new Pixel(255,0,0), e.getX(), e.getY()));
+				final int x = e.getX();
+				final int y = e.getY();
+				runFilter("Flood", "Flood " + x + " " + y, pic -> AdvancedManipulations.flood(pic, 
+						Pixel.RED, x, y));
 			}
 		});	
 
@@ -0,0 +1,183 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compares two pictures of the same size, for regression tests against
+ * golden images and for seeing where two versions of a filter disagree.
+ *
+ * The difference between two pixels is the sum of the absolute differences
+ * of their red, green and blue components, so at most 3 * 255. Differences
+ * are added up in longs straight from the packed pixels of both pictures,
+ * in parallel bands of rows, and cannot overflow for any picture size.
+ *
+ * Rectangles go from (x0, y0) inclusive to (x1, y1) exclusive, as in
+ * SummedAreaTable.
+ */
+public class ImageDiff {
+
+    /**
+     * The greatest difference between two pixels.
+     */
+    public static final int MAX_PIXEL_DIFF = 3 * 255;
+
+    private ImageDiff() {
+    }
+
+    /**
+     * The total difference between two pictures, or Long.MAX_VALUE if they
+     * are not the same size.
+     */
+    public static long total(PixelPicture p0, PixelPicture p1) {
+        if (!sameSize(p0, p1)) {
+            return Long.MAX_VALUE;
+        }
+        return total(p0, p1, 0, 0, p0.getWidth(), p0.getHeight());
+    }
+
+    /**
+     * The total difference between two pictures over a rectangle, such as
+     * the part of the picture a filter was meant to change.
+     *
+     * @throws IllegalArgumentException if the pictures are not the same size
+     * @throws IndexOutOfBoundsException if the rectangle is empty or not
+     *         inside the pictures
+     */
+    public static long total(PixelPicture p0, PixelPicture p1, int x0, int y0, int x1, int y1) {
+        check(p0, p1, x0, y0, x1, y1);
+        int w = p0.getWidth();
+        int[] b0 = p0.data();
+        int[] b1 = p1.data();
+        return TileScheduler.sum(y1 - y0, rows(x1 - x0), (start, end) -> {
+            long sum = 0;
+            for (int y = y0 + start; y < y0 + end; y++) {
+                sum += row(b0, b1, y * w + x0, y * w + x1);
+            }
+            return sum;
+        });
+    }
+
+    /**
+     * Whether the total difference between two pictures is at most
+     * threshold. Stops comparing as soon as the difference found so far is
+     * over threshold, so pictures that are far apart are told apart quickly.
+     * Pictures of different sizes are never within any threshold.
+     */
+    public static boolean within(PixelPicture p0, PixelPicture p1, long threshold) {
+        if (!sameSize(p0, p1) || threshold < 0) {
+            return false;
+        }
+        int w = p0.getWidth();
+        int[] b0 = p0.data();
+        int[] b1 = p1.data();
+        AtomicLong seen = new AtomicLong();
+        TileScheduler.run(p0.getHeight(), rows(w), (start, end) -> {
+            // row by row, so that one band gives up early too
+            for (int y = start; y < end && seen.get() <= threshold; y++) {
+                long d = row(b0, b1, y * w, y * w + w);
+                if (d != 0) {
+                    seen.addAndGet(d);
+                }
+            }
+        });
+        return seen.get() <= threshold;
+    }
+
+    /**
+     * The total difference within each tile of tileSize x tileSize pixels.
+     * Tiles are in row-major order, ceil(width / tileSize) of them across;
+     * the tiles on the right and bottom edges may be smaller.
+     *
+     * @throws IllegalArgumentException if the pictures are not the same
+     *         size, or tileSize is not positive
+     */
+    public static long[] tiles(PixelPicture p0, PixelPicture p1, int tileSize) {
+        check(p0, p1, 0, 0, p0.getWidth(), p0.getHeight());
+        if (tileSize <= 0) {
+            throw new IllegalArgumentException("tile size must be positive, got " + tileSize);
+        }
+        int w = p0.getWidth();
+        int h = p0.getHeight();
+        int across = (w + tileSize - 1) / tileSize;
+        int down = (h + tileSize - 1) / tileSize;
+        int[] b0 = p0.data();
+        int[] b1 = p1.data();
+        long[] tiles = new long[across * down];
+        // one row of tiles per task, so each task writes only its own sums
+        TileScheduler.run(down, 1, (start, end) -> {
+            for (int ty = start; ty < end; ty++) {
+                int yEnd = Math.min(h, (ty + 1) * tileSize);
+                for (int y = ty * tileSize; y < yEnd; y++) {
+                    for (int tx = 0; tx < across; tx++) {
+                        int x = tx * tileSize;
+                        tiles[ty * across + tx] +=
+                            row(b0, b1, y * w + x, y * w + Math.min(w, x + tileSize));
+                    }
+                }
+            }
+        });
+        return tiles;
+    }
+
+    /**
+     * A heatmap of the differences between two pictures: a gray picture
+     * with one pixel per tile of tileSize x tileSize pixels, as tiles()
+     * arranges them. Each pixel is the mean difference of a component
+     * within its tile, from black where the pictures agree to white where
+     * one is the inverse of the other.
+     *
+     * @see #tiles(PixelPicture, PixelPicture, int)
+     */
+    public static PixelPicture heatmap(PixelPicture p0, PixelPicture p1, int tileSize) {
+        long[] tiles = tiles(p0, p1, tileSize);
+        int w = p0.getWidth();
+        int h = p0.getHeight();
+        int across = (w + tileSize - 1) / tileSize;
+        int down = tiles.length / across;
+        int[] out = new int[tiles.length];
+        for (int ty = 0; ty < down; ty++) {
+            int th = Math.min(h, (ty + 1) * tileSize) - ty * tileSize;
+            for (int tx = 0; tx < across; tx++) {
+                int tw = Math.min(w, (tx + 1) * tileSize) - tx * tileSize;
+                double mean = tiles[ty * across + tx] / (3.0 * tw * th);
+                int v = (int) Math.round(mean);
+                out[ty * across + tx] = Pixel.rgb(v, v, v);
+            }
+        }
+        return PixelPicture.wrap(across, down, out);
+    }
+
+    // The difference between a[start, end) and b[start, end)
+    private static long row(int[] a, int[] b, int start, int end) {
+        long sum = 0;
+        for (int i = start; i < end; i++) {
+            int c0 = a[i];
+            int c1 = b[i];
+            if (c0 != c1) {
+                sum += Math.abs(((c0 >> 16) & 0xff) - ((c1 >> 16) & 0xff))
+                     + Math.abs(((c0 >> 8) & 0xff) - ((c1 >> 8) & 0xff))
+                     + Math.abs((c0 & 0xff) - (c1 & 0xff));
+            }
+        }
+        return sum;
+    }
+
+    // Rows per task for rows of the given width
+    private static int rows(int width) {
+        return Math.max(1, TileScheduler.TILE_PIXELS / Math.max(1, width));
+    }
+
+    private static boolean sameSize(PixelPicture p0, PixelPicture p1) {
+        return p0.getWidth() == p1.getWidth() && p0.getHeight() == p1.getHeight();
+    }
+
+    private static void check(PixelPicture p0, PixelPicture p1, int x0, int y0, int x1, int y1) {
+        if (!sameSize(p0, p1)) {
+            throw new IllegalArgumentException("cannot compare a " + p0.getWidth() + "x"
+                    + p0.getHeight() + " picture with a " + p1.getWidth() + "x"
+                    + p1.getHeight() + " picture");
+        }
+        if (x0 < 0 || y0 < 0 || x1 > p0.getWidth() || y1 > p0.getHeight() || x0 >= x1 || y0 >= y1) {
+            throw new IndexOutOfBoundsException("rectangle (" + x0 + ", " + y0 + ") to ("
+                    + x1 + ", " + y1 + ") in a " + p0.getWidth() + "x" + p0.getHeight() + " picture");
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/**
+ * A first-in, first-out queue of ints, stored in a growable ring buffer.
+ *
+ * Unlike a LinkedList of boxed values, adding and removing elements does
+ * not allocate (except when the buffer has to grow), which matters for
+ * flood fill where millions of points can pass through the queue. Points
+ * are stored as a single int index, y * width + x.
+ */
+public class IntQueue {
+
+    private int[] buffer;
+    private int head;  // index of the first element
+    private int size;
+
+    /**
+     * Creates an empty queue.
+     */
+    public IntQueue() {
+        this(16);
+    }
+
+    /**
+     * Creates an empty queue with room for the given number of elements
+     * before it needs to grow.
+     */
+    public IntQueue(int capacity) {
+        buffer = new int[Math.max(1, capacity)];
+    }
+
+    /**
+     * Add an element to the back of the queue.
+     *
+     * @param v The int to add to the queue.
+     */
+    public void add(int v) {
+        if (size == buffer.length) {
+            int[] bigger = new int[buffer.length * 2];
+            int firstPart = buffer.length - head;
+            System.arraycopy(buffer, head, bigger, 0, firstPart);
+            System.arraycopy(buffer, 0, bigger, firstPart, head);
+            buffer = bigger;
+            head = 0;
+        }
+        int tail = head + size;
+        if (tail >= buffer.length) {
+            tail -= buffer.length;
+        }
+        buffer[tail] = v;
+        size++;
+    }
+
+    /**
+     * Remove the element at the front of the queue.
+     *
+     * @return The element that was removed.
+     * @throws java.util.NoSuchElementException if the queue is empty
+     */
+    public int remove() {
+        if (size == 0) {
+            throw new java.util.NoSuchElementException("queue is empty");
+        }
+        int v = buffer[head];
+        head++;
+        if (head == buffer.length) {
+            head = 0;
+        }
+        size--;
+        return v;
+    }
+
+    /**
+     * Determine whether the queue is empty.
+     *
+     * @return true if the queue is empty; false otherwise.
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Retrieves the size of the queue.
+     *
+     * @return The number of elements in the queue.
+     */
+    public int size() {
+        return size;
+    }
+}
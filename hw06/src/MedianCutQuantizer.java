@@ -0,0 +1,211 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Chooses a palette by median cut, in one pass over the pixels and in a
+ * fixed amount of memory.
+ *
+ * The pass counts the pixels in each cell of a 32x32x32 grid over the RGB
+ * cube (the top 5 bits of each component), along with the sums of their
+ * components. Starting from the box around all the cells that have pixels,
+ * the most populous box is repeatedly cut in two along its widest
+ * component, at the median pixel, until there are as many boxes as colors
+ * asked for (or no box can be cut). Each box becomes the average color of
+ * its pixels.
+ *
+ * A pixel is mapped through a table from grid cells to palette entries, so
+ * all the pixels in a cell get the same color.
+ */
+public class MedianCutQuantizer implements Quantizer {
+
+    private static final int BITS = 5;
+    private static final int SIDE = 1 << BITS;
+    private static final int SHIFT = 8 - BITS;
+
+    private final int[] palette;
+    // the palette entry of every cell
+    private final int[] cellIndex = new int[SIDE * SIDE * SIDE];
+
+    // A box of cells, with bounds inclusive, and the pixels inside it
+    private static final class Box {
+        final int[] lo = new int[3];
+        final int[] hi = new int[3];
+        long pixels;
+    }
+
+    /**
+     * Builds a palette of at most numColors colors for a packed picture.
+     */
+    public MedianCutQuantizer(int[] bmp, int numColors) {
+        int[] count = new int[cellIndex.length];
+        long[] sumR = new long[cellIndex.length];
+        long[] sumG = new long[cellIndex.length];
+        long[] sumB = new long[cellIndex.length];
+        for (int p : bmp) {
+            int r = (p >> 16) & 0xff;
+            int g = (p >> 8) & 0xff;
+            int b = p & 0xff;
+            int cell = cell(r, g, b);
+            count[cell]++;
+            sumR[cell] += r;
+            sumG[cell] += g;
+            sumB[cell] += b;
+        }
+
+        List<Box> boxes = new ArrayList<Box>();
+        Box all = new Box();
+        all.hi[0] = all.hi[1] = all.hi[2] = SIDE - 1;
+        boxes.add(shrink(all, count));
+
+        while (boxes.size() < Math.max(1, numColors)) {
+            // the most populous box that has more than one cell
+            Box biggest = null;
+            for (Box b : boxes) {
+                if ((biggest == null || b.pixels > biggest.pixels) && axis(b) >= 0) {
+                    biggest = b;
+                }
+            }
+            if (biggest == null) {
+                break;
+            }
+            boxes.remove(biggest);
+            Box[] halves = cut(biggest, count);
+            boxes.add(halves[0]);
+            boxes.add(halves[1]);
+        }
+
+        palette = new int[boxes.size()];
+        Arrays.fill(cellIndex, -1);
+        for (int i = 0; i < palette.length; i++) {
+            Box b = boxes.get(i);
+            long n = 0;
+            long r = 0;
+            long g = 0;
+            long bl = 0;
+            for (int cr = b.lo[0]; cr <= b.hi[0]; cr++) {
+                for (int cg = b.lo[1]; cg <= b.hi[1]; cg++) {
+                    for (int cb = b.lo[2]; cb <= b.hi[2]; cb++) {
+                        int c = (cr * SIDE + cg) * SIDE + cb;
+                        n += count[c];
+                        r += sumR[c];
+                        g += sumG[c];
+                        bl += sumB[c];
+                        cellIndex[c] = i;
+                    }
+                }
+            }
+            palette[i] = Pixel.rgb((int) ((r + n / 2) / n), (int) ((g + n / 2) / n),
+                                   (int) ((bl + n / 2) / n));
+        }
+
+        // cells outside every box have no pixels of the picture; give them
+        // the closest entry to their center
+        PaletteIndex index = null;
+        for (int c = 0; c < cellIndex.length; c++) {
+            if (cellIndex[c] < 0) {
+                if (index == null) {
+                    index = new PaletteIndex(palette);
+                }
+                int center = 1 << (SHIFT - 1);
+                cellIndex[c] = index.nearestIndex(Pixel.rgb(
+                        ((c >> (2 * BITS)) << SHIFT) + center,
+                        (((c >> BITS) & (SIDE - 1)) << SHIFT) + center,
+                        ((c & (SIDE - 1)) << SHIFT) + center));
+            }
+        }
+    }
+
+    private static int cell(int r, int g, int b) {
+        return ((r >> SHIFT) * SIDE + (g >> SHIFT)) * SIDE + (b >> SHIFT);
+    }
+
+    // The component along which a box is widest, or -1 if it is one cell
+    private static int axis(Box b) {
+        int best = -1;
+        int width = 0;
+        for (int a = 0; a < 3; a++) {
+            if (b.hi[a] - b.lo[a] > width) {
+                width = b.hi[a] - b.lo[a];
+                best = a;
+            }
+        }
+        return best;
+    }
+
+    // The pixels in the slice of a box where component a is v
+    private static long slice(Box b, int a, int v, int[] count) {
+        int[] lo = b.lo.clone();
+        int[] hi = b.hi.clone();
+        lo[a] = v;
+        hi[a] = v;
+        long n = 0;
+        for (int cr = lo[0]; cr <= hi[0]; cr++) {
+            for (int cg = lo[1]; cg <= hi[1]; cg++) {
+                for (int cb = lo[2]; cb <= hi[2]; cb++) {
+                    n += count[(cr * SIDE + cg) * SIDE + cb];
+                }
+            }
+        }
+        return n;
+    }
+
+    // Cuts a box in two at the median along its widest component
+    private static Box[] cut(Box b, int[] count) {
+        int a = axis(b);
+        // the box was shrunk, so its first and last slices are not empty,
+        // and cutting anywhere in [lo, hi) leaves pixels on both sides
+        long seen = 0;
+        int at = b.lo[a];
+        for (; at < b.hi[a] - 1; at++) {
+            seen += slice(b, a, at, count);
+            if (2 * seen >= b.pixels) {
+                break;
+            }
+        }
+        Box left = new Box();
+        Box right = new Box();
+        for (int k = 0; k < 3; k++) {
+            left.lo[k] = right.lo[k] = b.lo[k];
+            left.hi[k] = right.hi[k] = b.hi[k];
+        }
+        left.hi[a] = at;
+        right.lo[a] = at + 1;
+        return new Box[] { shrink(left, count), shrink(right, count) };
+    }
+
+    // Shrinks a box to the smallest one around its cells with pixels, and
+    // counts them
+    private static Box shrink(Box b, int[] count) {
+        Box s = new Box();
+        s.lo[0] = s.lo[1] = s.lo[2] = SIDE;
+        s.hi[0] = s.hi[1] = s.hi[2] = -1;
+        for (int cr = b.lo[0]; cr <= b.hi[0]; cr++) {
+            for (int cg = b.lo[1]; cg <= b.hi[1]; cg++) {
+                for (int cb = b.lo[2]; cb <= b.hi[2]; cb++) {
+                    int n = count[(cr * SIDE + cg) * SIDE + cb];
+                    if (n > 0) {
+                        s.pixels += n;
+                        s.lo[0] = Math.min(s.lo[0], cr);
+                        s.lo[1] = Math.min(s.lo[1], cg);
+                        s.lo[2] = Math.min(s.lo[2], cb);
+                        s.hi[0] = Math.max(s.hi[0], cr);
+                        s.hi[1] = Math.max(s.hi[1], cg);
+                        s.hi[2] = Math.max(s.hi[2], cb);
+                    }
+                }
+            }
+        }
+        return s;
+    }
+
+    @Override
+    public int[] getPalette() {
+        return palette.clone();
+    }
+
+    @Override
+    public int map(int rgb) {
+        return palette[cellIndex[cell((rgb >> 16) & 0xff, (rgb >> 8) & 0xff, rgb & 0xff)]];
+    }
+}
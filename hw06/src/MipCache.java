@@ -0,0 +1,113 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Smaller copies of a picture, for previewing manipulations quickly.
+ *
+ * Level 0 is the picture itself, and each following level is half the width
+ * and height of the one before (rounded up), each pixel the average of a 2x2
+ * block. Levels are computed the first time they are asked for and kept, so
+ * trying out many parameters on the same picture shrinks it only once.
+ *
+ * A manipulation run on a smaller level gives a close, but not identical,
+ * picture to running it on the full picture and shrinking the result.
+ * Parameters measured in pixels, like a blur radius, should be divided by
+ * 2^level.
+ */
+public class MipCache {
+
+    private final PixelPicture source;
+    private final List<PixelPicture> levels = new ArrayList<PixelPicture>();
+
+    /**
+     * Creates a cache for a picture. No levels are computed yet.
+     */
+    public MipCache(PixelPicture source) {
+        this.source = source;
+        levels.add(source);
+    }
+
+    /**
+     * The picture this cache shrinks.
+     */
+    public PixelPicture getSource() {
+        return source;
+    }
+
+    /**
+     * Gets a level of the cache, computing it if needed. Asking for a level
+     * beyond the one that is 1x1 gives the 1x1 level.
+     */
+    public synchronized PixelPicture getLevel(int level) {
+        while (levels.size() <= level) {
+            PixelPicture last = levels.get(levels.size() - 1);
+            if (last.getWidth() == 1 && last.getHeight() == 1) {
+                return last;
+            }
+            levels.add(halve(last));
+        }
+        return levels.get(level);
+    }
+
+    /**
+     * The first level with at most the given number of pixels.
+     */
+    public int levelFor(long maxPixels) {
+        int level = 0;
+        long w = source.getWidth();
+        long h = source.getHeight();
+        while (w * h > maxPixels && (w > 1 || h > 1)) {
+            w = (w + 1) / 2;
+            h = (h + 1) / 2;
+            level++;
+        }
+        return level;
+    }
+
+    /**
+     * The largest level with at most the given number of pixels.
+     */
+    public PixelPicture proxy(long maxPixels) {
+        return getLevel(levelFor(maxPixels));
+    }
+
+    /**
+     * Shrinks a picture to half its width and height, rounded up. Each
+     * pixel is the rounded average of a 2x2 block; at an odd right or
+     * bottom edge the block is the pixels that exist.
+     */
+    static PixelPicture halve(PixelPicture pic) {
+        final int w = pic.getWidth();
+        final int h = pic.getHeight();
+        final int hw = (w + 1) / 2;
+        final int hh = (h + 1) / 2;
+        final int[] src = pic.getPixels();
+        final int[] tgt = new int[hw * hh];
+
+        TileScheduler.forEachRow(hw, hh, 1, (start, end) -> {
+            for (int y = start; y < end; y++) {
+                int y0 = 2 * y;
+                int y1 = Math.min(y0 + 1, h - 1);
+                for (int x = 0; x < hw; x++) {
+                    int x0 = 2 * x;
+                    int x1 = Math.min(x0 + 1, w - 1);
+                    int a = src[y0 * w + x0];
+                    int b = src[y0 * w + x1];
+                    int c = src[y1 * w + x0];
+                    int d = src[y1 * w + x1];
+                    tgt[y * hw + x] = average(a, b, c, d);
+                }
+            }
+        });
+        return PixelPicture.wrap(hw, hh, tgt);
+    }
+
+    private static int average(int a, int b, int c, int d) {
+        int r = (((a >> 16) & 0xff) + ((b >> 16) & 0xff)
+                 + ((c >> 16) & 0xff) + ((d >> 16) & 0xff) + 2) >> 2;
+        int g = (((a >> 8) & 0xff) + ((b >> 8) & 0xff)
+                 + ((c >> 8) & 0xff) + ((d >> 8) & 0xff) + 2) >> 2;
+        int bl = ((a & 0xff) + (b & 0xff) + (c & 0xff) + (d & 0xff) + 2) >> 2;
+        return (r << 16) | (g << 8) | bl;
+    }
+}
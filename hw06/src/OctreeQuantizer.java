@@ -0,0 +1,292 @@
+import java.util.Arrays;
+
+/**
+ * Chooses a palette with an octree, in one pass over the pixels and in a
+ * fixed amount of memory.
+ *
+ * Every color is a path from the root of the tree down to depth 8: at depth
+ * d, the child is picked by bit 7 - d of red, green and blue. Each pixel is
+ * added to the leaf at the end of its path, which keeps a count and the sums
+ * of the components. Whenever the tree is about to grow past its budget of
+ * nodes, one of the deepest inner nodes is reduced: its children, which are
+ * all leaves, are merged into it and it becomes a leaf. Those colors only
+ * differ in their lowest bits, so they are the most similar ones the tree
+ * holds. From then on, new colors stop at that depth too. After the pass,
+ * nodes are reduced in the same way, those with the fewest pixels first,
+ * until there are at most as many leaves as colors asked for.
+ *
+ * The palette is the average color of each leaf, and a pixel is mapped by
+ * following its path down to a leaf. Pictures with no more colors than the
+ * palette size (and the budget) keep every color exactly.
+ */
+public class OctreeQuantizer implements Quantizer {
+
+    /**
+     * The number of tree nodes kept while gathering colors when none is
+     * given: 32K nodes, about 2.5MB.
+     */
+    public static final int DEFAULT_BUDGET = 1 << 15;
+
+    private static final int DEPTH = 8;
+
+    // Size of the tables of recently seen colors, as in reducePalette
+    private static final int MEMO_BITS = 12;
+    private static final int MEMO_SIZE = 1 << MEMO_BITS;
+
+    // Node 0 is the root, which is nobody's child, so 0 means "no child"
+    private final int[] children;      // 8 per node
+    private final long[] count;
+    private final long[] sumR;
+    private final long[] sumG;
+    private final long[] sumB;
+    private final boolean[] leaf;
+    private final int[] index;         // into the palette, for leaves
+
+    // The inner nodes at each depth that can be reduced, as linked lists
+    private final int[] reducible = new int[DEPTH];
+    private final int[] nextReducible;
+
+    // Nodes that were freed by reductions, and the first never-used node
+    private final int[] free;
+    private int freeCount;
+    private int unused;
+    private int leaves;
+    // Nodes this deep are made leaves: once colors have been merged at some
+    // depth, there is no point in telling new ones apart below it
+    private int leafDepth = DEPTH;
+
+    // The leaves that recently added colors went to; cleared by reduce,
+    // which can free leaves
+    private final int[] seenColor = new int[MEMO_SIZE];
+    private final int[] seenLeaf = new int[MEMO_SIZE];
+
+    private final int[] palette;
+    private volatile PaletteIndex fallback;
+
+    /**
+     * Builds a palette of at most numColors colors for a packed picture,
+     * with the default node budget.
+     */
+    public OctreeQuantizer(int[] bmp, int numColors) {
+        this(bmp, numColors, DEFAULT_BUDGET);
+    }
+
+    /**
+     * Builds a palette of at most numColors colors for a packed picture,
+     * using at most budget tree nodes. The palette can be no larger than
+     * the number of leaves that fit in the budget.
+     *
+     * @throws IllegalArgumentException if budget is less than 2 * DEPTH + 1
+     */
+    public OctreeQuantizer(int[] bmp, int numColors, int budget) {
+        if (budget < 2 * DEPTH + 1) {
+            throw new IllegalArgumentException("node budget too small: " + budget);
+        }
+        children = new int[8 * budget];
+        count = new long[budget];
+        sumR = new long[budget];
+        sumG = new long[budget];
+        sumB = new long[budget];
+        leaf = new boolean[budget];
+        index = new int[budget];
+        nextReducible = new int[budget];
+        free = new int[budget];
+        Arrays.fill(reducible, -1);
+        Arrays.fill(seenColor, -1);
+
+        newNode(0);
+        for (int p : bmp) {
+            // a new color adds at most DEPTH nodes
+            while (free.length - unused + freeCount < DEPTH) {
+                reduce();
+            }
+            add(p);
+        }
+        reduceTo(Math.max(1, numColors));
+
+        palette = new int[leaves];
+        number(0, 0);
+    }
+
+    private int newNode(int depth) {
+        int n = freeCount > 0 ? free[--freeCount] : unused++;
+        Arrays.fill(children, 8 * n, 8 * n + 8, 0);
+        count[n] = 0;
+        sumR[n] = 0;
+        sumG[n] = 0;
+        sumB[n] = 0;
+        leaf[n] = depth >= leafDepth;
+        if (leaf[n]) {
+            leaves++;
+        } else {
+            nextReducible[n] = reducible[depth];
+            reducible[depth] = n;
+        }
+        return n;
+    }
+
+    private void add(int rgb) {
+        int r = (rgb >> 16) & 0xff;
+        int g = (rgb >> 8) & 0xff;
+        int b = rgb & 0xff;
+        int memo = memoSlot(rgb);
+        int n = seenColor[memo] == rgb ? seenLeaf[memo] : 0;
+        for (int depth = 0; !leaf[n]; depth++) {
+            int slot = 8 * n + octant(r, g, b, depth);
+            if (children[slot] == 0) {
+                children[slot] = newNode(depth + 1);
+            }
+            n = children[slot];
+        }
+        seenColor[memo] = rgb;
+        seenLeaf[memo] = n;
+        count[n]++;
+        sumR[n] += r;
+        sumG[n] += g;
+        sumB[n] += b;
+    }
+
+    private static int memoSlot(int rgb) {
+        return (rgb * 0x9E3779B9) >>> (32 - MEMO_BITS);
+    }
+
+    // Which child of a node at this depth a color goes to
+    private static int octant(int r, int g, int b, int depth) {
+        int shift = 7 - depth;
+        return (((r >> shift) & 1) << 2) | (((g >> shift) & 1) << 1) | ((b >> shift) & 1);
+    }
+
+    // Merges the children of one of the deepest inner nodes into it
+    private void reduce() {
+        int depth = DEPTH - 1;
+        while (reducible[depth] < 0) {
+            depth--;
+        }
+        int n = reducible[depth];
+        reducible[depth] = nextReducible[n];
+        merge(n, depth);
+    }
+
+    // Reduces nodes until there are at most target leaves, taking the
+    // nodes with the fewest pixels first at each depth
+    private void reduceTo(int target) {
+        for (int depth = DEPTH - 1; depth >= 0 && leaves > target; depth--) {
+            int k = 0;
+            for (int n = reducible[depth]; n >= 0; n = nextReducible[n]) {
+                k++;
+            }
+            // pixel count in the high half, node in the low half
+            long[] order = new long[k];
+            k = 0;
+            for (int n = reducible[depth]; n >= 0; n = nextReducible[n]) {
+                long pixels = 0;
+                for (int c = 8 * n; c < 8 * n + 8; c++) {
+                    if (children[c] != 0) {
+                        pixels += count[children[c]];
+                    }
+                }
+                order[k++] = (pixels << 32) | n;
+            }
+            Arrays.sort(order);
+            reducible[depth] = -1;
+            for (long o : order) {
+                int n = (int) o;
+                if (leaves > target) {
+                    merge(n, depth);
+                } else {
+                    nextReducible[n] = reducible[depth];
+                    reducible[depth] = n;
+                }
+            }
+        }
+    }
+
+    // Merges the children of n, which are all leaves, into n
+    private void merge(int n, int depth) {
+        for (int k = 8 * n; k < 8 * n + 8; k++) {
+            int c = children[k];
+            if (c != 0) {
+                count[n] += count[c];
+                sumR[n] += sumR[c];
+                sumG[n] += sumG[c];
+                sumB[n] += sumB[c];
+                children[k] = 0;
+                free[freeCount++] = c;
+                leaves--;
+            }
+        }
+        leaf[n] = true;
+        leaves++;
+        leafDepth = depth;
+        Arrays.fill(seenColor, -1);
+    }
+
+    // Gives the leaves under n their palette entries, from next on
+    private int number(int n, int next) {
+        if (leaf[n]) {
+            index[n] = next;
+            palette[next] = Pixel.rgb(average(sumR[n], count[n]), average(sumG[n], count[n]),
+                                      average(sumB[n], count[n]));
+            return next + 1;
+        }
+        for (int k = 8 * n; k < 8 * n + 8; k++) {
+            if (children[k] != 0) {
+                next = number(children[k], next);
+            }
+        }
+        return next;
+    }
+
+    private static int average(long sum, long n) {
+        return n == 0 ? 0 : (int) ((sum + n / 2) / n);
+    }
+
+    @Override
+    public int[] getPalette() {
+        return palette.clone();
+    }
+
+    @Override
+    public void mapAll(int[] bmp) {
+        TileScheduler.forEachPixel(bmp.length, (start, end) -> {
+            // one table of recent answers per tile, so no sharing
+            int[] seen = new int[MEMO_SIZE];
+            int[] answer = new int[MEMO_SIZE];
+            Arrays.fill(seen, -1);
+            for (int i = start; i < end; i++) {
+                int p = bmp[i];
+                int slot = memoSlot(p);
+                if (seen[slot] != p) {
+                    seen[slot] = p;
+                    answer[slot] = map(p);
+                }
+                bmp[i] = answer[slot];
+            }
+        });
+    }
+
+    @Override
+    public int map(int rgb) {
+        int r = (rgb >> 16) & 0xff;
+        int g = (rgb >> 8) & 0xff;
+        int b = rgb & 0xff;
+        int n = 0;
+        for (int depth = 0; !leaf[n]; depth++) {
+            n = children[8 * n + octant(r, g, b, depth)];
+            if (n == 0) {
+                // a color the picture did not have
+                return palette[fallback().nearestIndex(rgb)];
+            }
+        }
+        return palette[index[n]];
+    }
+
+    private PaletteIndex fallback() {
+        PaletteIndex f = fallback;
+        if (f == null) {
+            f = new PaletteIndex(palette);
+            fallback = f;
+        }
+        return f;
+    }
+}
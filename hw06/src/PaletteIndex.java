@@ -0,0 +1,116 @@
+/**
+ * Finds the closest color in a palette, using the same distance as
+ * Pixel.distance (the sum of the absolute differences of the components).
+ *
+ * The RGB cube is cut into 16x16x16 cells. For every cell we keep the
+ * palette entries that could be the closest one to some color inside it:
+ * an entry is kept unless its smallest possible distance to the cell is
+ * larger than the largest possible distance from the cell to some other
+ * entry. A query then only compares against the candidates of its cell.
+ *
+ * Candidates are kept in palette order, so when several entries are the
+ * same distance away the one that comes first in the palette wins, exactly
+ * as with a linear scan. For reducePalette the palette is in
+ * getSortedPixels order, which means ties go to the most frequent color.
+ */
+public class PaletteIndex {
+
+    // Each cell covers CELL values of each component
+    private static final int CELL = 16;
+    private static final int CELLS = 256 / CELL;
+
+    private final int[] palette;
+    // cells[cell] lists the indices into palette of the candidates
+    private final int[][] cells = new int[CELLS * CELLS * CELLS][];
+
+    /**
+     * Builds an index over a palette.
+     *
+     * @param palette the packed colors of the palette, in priority order
+     */
+    public PaletteIndex(int[] palette) {
+        this.palette = palette.clone();
+        int[] scratch = new int[palette.length];
+
+        for (int cr = 0; cr < CELLS; cr++) {
+            for (int cg = 0; cg < CELLS; cg++) {
+                for (int cb = 0; cb < CELLS; cb++) {
+                    int lr = cr * CELL;
+                    int lg = cg * CELL;
+                    int lb = cb * CELL;
+
+                    // the best guaranteed distance for any color in the cell
+                    int bound = Integer.MAX_VALUE;
+                    for (int c : this.palette) {
+                        bound = Math.min(bound, maxDistance(c, lr, lg, lb));
+                    }
+
+                    int n = 0;
+                    for (int i = 0; i < this.palette.length; i++) {
+                        if (minDistance(this.palette[i], lr, lg, lb) <= bound) {
+                            scratch[n++] = i;
+                        }
+                    }
+                    int[] candidates = new int[n];
+                    System.arraycopy(scratch, 0, candidates, 0, n);
+                    cells[(cr * CELLS + cg) * CELLS + cb] = candidates;
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds the palette entry closest to a color. If several entries are
+     * equally close, the one with the smallest index wins.
+     *
+     * @param rgb the packed color to look up
+     * @return the index into the palette, or -1 if the palette is empty
+     */
+    public int nearestIndex(int rgb) {
+        int r = (rgb >> 16) & 0xff;
+        int g = (rgb >> 8) & 0xff;
+        int b = rgb & 0xff;
+        int[] candidates = cells[((r / CELL) * CELLS + g / CELL) * CELLS + b / CELL];
+
+        int best = -1;
+        int dist = Integer.MAX_VALUE;
+        for (int i : candidates) {
+            int d = distance(palette[i], r, g, b);
+            if (d < dist) {
+                dist = d;
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * The distance between a packed color and the given components, as in
+     * Pixel.distance.
+     */
+    static int distance(int c, int r, int g, int b) {
+        return Math.abs(((c >> 16) & 0xff) - r)
+             + Math.abs(((c >> 8) & 0xff) - g)
+             + Math.abs((c & 0xff) - b);
+    }
+
+    // The smallest distance from c to any color in the cell starting at l
+    private static int minDistance(int c, int lr, int lg, int lb) {
+        return gap((c >> 16) & 0xff, lr) + gap((c >> 8) & 0xff, lg) + gap(c & 0xff, lb);
+    }
+
+    // The largest distance from c to any color in the cell starting at l
+    private static int maxDistance(int c, int lr, int lg, int lb) {
+        return reach((c >> 16) & 0xff, lr) + reach((c >> 8) & 0xff, lg) + reach(c & 0xff, lb);
+    }
+
+    private static int gap(int v, int lo) {
+        int hi = lo + CELL - 1;
+        return v < lo ? lo - v : v > hi ? v - hi : 0;
+    }
+
+    private static int reach(int v, int lo) {
+        int hi = lo + CELL - 1;
+        return Math.max(Math.abs(v - lo), Math.abs(v - hi));
+    }
+}
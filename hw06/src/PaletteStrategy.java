@@ -0,0 +1,40 @@
+import java.util.Locale;
+
+/**
+ * How AdvancedManipulations.reducePalette chooses its palette.
+ */
+public enum PaletteStrategy {
+
+    /**
+     * The most frequent exact colors, each pixel mapped to the closest of
+     * them. This is the original reducePalette. It counts every distinct
+     * color, so its memory grows with the number of colors in the picture,
+     * and a picture that is mostly blue gets an all-blue palette.
+     */
+    FREQUENCY,
+
+    /**
+     * An octree quantizer (see OctreeQuantizer). Colors are gathered in a
+     * tree of at most a fixed number of nodes in one pass, and similar colors
+     * are merged until the palette fits. Keeps every color of pictures that
+     * have few enough of them.
+     */
+    OCTREE,
+
+    /**
+     * A median-cut quantizer (see MedianCutQuantizer). The colors of the
+     * picture, at 5 bits per component, are split into boxes of about equal
+     * population along their widest component.
+     */
+    MEDIAN_CUT;
+
+    /**
+     * The strategy with the given name, ignoring case and treating '-' as
+     * '_', e.g. "median-cut".
+     *
+     * @throws IllegalArgumentException if there is no such strategy
+     */
+    public static PaletteStrategy parse(String name) {
+        return valueOf(name.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+    }
+}
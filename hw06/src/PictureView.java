@@ -0,0 +1,293 @@
+import java.util.Arrays;
+
+/**
+ * A picture defined as a rearrangement of another one, whose pixels are only
+ * computed when they are needed.
+ *
+ * Borders, crops, mirrors and rotations by quarter turns do not compute any
+ * colors: every pixel of the result is either a pixel of the original or the
+ * color of a border. A view records that as a map from its coordinates to the
+ * original's, plus the borders, so these operations take constant time and
+ * memory however large the picture is, and any chain of them collapses into
+ * one view of the original picture.
+ *
+ * The map is one of the eight orientations of a rectangle (a quarter turn or
+ * mirror, as a matrix of 0s and 1s and -1s) and a translation. Where the
+ * original is visible is a rectangle of the view, the content. Each border
+ * adds a frame around everything before it, so the frames are rectangles
+ * nested around the content, and a pixel outside the content takes the color
+ * of the innermost frame that contains it. Cropping cuts every rectangle down
+ * to the new bounds, and turning or mirroring the view moves them.
+ *
+ * A view becomes a picture with toPicture. SimpleManipulations returns such
+ * pictures for border, crop, the mirrors and the rotations, and PixelPicture
+ * only draws them into pixels of their own when something needs the whole
+ * raster, such as saving or displaying the picture (see PixelPicture.data).
+ */
+public final class PictureView {
+
+    // The original picture
+    private final PixelPicture parent;
+
+    private final int width;
+    private final int height;
+
+    // Pixel (x, y) of the view is pixel (xx * x + xy * y + tx,
+    // yx * x + yy * y + ty) of the parent
+    private final int xx, xy, tx;
+    private final int yx, yy, ty;
+
+    // Where the parent is visible, as {x0, y0, x1, y1} with x1 and y1
+    // exclusive; empty if it was cropped away
+    private final int[] content;
+
+    // The frames of the borders, innermost first, 4 ints each like content,
+    // and their colors
+    private final int[] frames;
+    private final int[] colors;
+
+    private PictureView(PixelPicture parent, int width, int height,
+                        int xx, int xy, int tx, int yx, int yy, int ty,
+                        int[] content, int[] frames, int[] colors) {
+        this.parent = parent;
+        this.width = width;
+        this.height = height;
+        this.xx = xx;
+        this.xy = xy;
+        this.tx = tx;
+        this.yx = yx;
+        this.yy = yy;
+        this.ty = ty;
+        this.content = content;
+        this.frames = frames;
+        this.colors = colors;
+    }
+
+    /**
+     * The view of a whole picture, unchanged. If the picture is itself a view
+     * that has not been drawn yet, this is that view, so that chains of views
+     * always look straight at the original picture.
+     */
+    public static PictureView of(PixelPicture pic) {
+        PictureView v = pic.lazyView();
+        if (v != null) {
+            return v;
+        }
+        int w = pic.getWidth();
+        int h = pic.getHeight();
+        return new PictureView(pic, w, h, 1, 0, 0, 0, 1, 0,
+                               new int[] { 0, 0, w, h }, new int[0], new int[0]);
+    }
+
+    /**
+     * Get the width of the view.
+     */
+    public int getWidth() { return width; }
+
+    /**
+     * Get the height of the view.
+     */
+    public int getHeight() { return height; }
+
+    /**
+     * Gets a single packed RGB pixel of the view.
+     *
+     * @param x the column of the pixel
+     * @param y the row of the pixel
+     * @return the pixel at (x,y) as 0xRRGGBB
+     */
+    public int getRGB(int x, int y) {
+        if (x < 0 || y < 0 || x >= width || y >= height) {
+            throw new IndexOutOfBoundsException("(" + x + ", " + y + ") is outside the image");
+        }
+        if (inside(content, 0, x, y)) {
+            return parent.getRGB(xx * x + xy * y + tx, yx * x + yy * y + ty);
+        }
+        for (int i = 0; i < colors.length; i++) {
+            if (inside(frames, 4 * i, x, y)) {
+                return colors[i];
+            }
+        }
+        throw new IllegalStateException("(" + x + ", " + y + ") is in no frame");
+    }
+
+    /**
+     * The view surrounded by a border.
+     *
+     * @param borderWidth the number of pixels in the border on each side
+     * @param borderColor the color of the border
+     * @throws IllegalArgumentException if borderWidth is negative
+     */
+    public PictureView border(int borderWidth, Pixel borderColor) {
+        if (borderWidth < 0) {
+            throw new IllegalArgumentException("negative border width " + borderWidth);
+        }
+        if (borderWidth == 0) {
+            return this;
+        }
+        int w = width + 2 * borderWidth;
+        int h = height + 2 * borderWidth;
+        PictureView moved = remap(w, h, 1, 0, -borderWidth, 0, 1, -borderWidth);
+        int n = colors.length;
+        int[] f = Arrays.copyOf(moved.frames, 4 * n + 4);
+        int[] c = Arrays.copyOf(colors, n + 1);
+        f[4 * n + 2] = w;
+        f[4 * n + 3] = h;
+        c[n] = borderColor.getRGB();
+        return new PictureView(parent, w, h, moved.xx, moved.xy, moved.tx,
+                               moved.yx, moved.yy, moved.ty, moved.content, f, c);
+    }
+
+    /**
+     * The part of the view inside a rectangle.
+     *
+     * @param x      the left column of the rectangle
+     * @param y      the top row of the rectangle
+     * @param width  the width of the rectangle
+     * @param height the height of the rectangle
+     * @throws IndexOutOfBoundsException if the rectangle is empty or not
+     *         inside the view
+     */
+    public PictureView crop(int x, int y, int width, int height) {
+        if (width <= 0 || height <= 0 || x < 0 || y < 0
+            || x > this.width - width || y > this.height - height) {
+            throw new IndexOutOfBoundsException("cannot crop " + width + "x" + height
+                                                + " at (" + x + ", " + y + ") from "
+                                                + this.width + "x" + this.height);
+        }
+        return remap(width, height, 1, 0, x, 0, 1, y);
+    }
+
+    /**
+     * The view turned 90 degrees clockwise; see SimpleManipulations.rotateCW.
+     */
+    public PictureView rotateCW() {
+        // new (x, y) is old (y, height - 1 - x)
+        return remap(height, width, 0, 1, 0, -1, 0, height - 1);
+    }
+
+    /**
+     * The view turned 90 degrees counter-clockwise; see
+     * SimpleManipulations.rotateCCW.
+     */
+    public PictureView rotateCCW() {
+        // new (x, y) is old (width - 1 - y, x)
+        return remap(height, width, 0, -1, width - 1, 1, 0, 0);
+    }
+
+    /**
+     * The view mirrored left to right.
+     */
+    public PictureView mirrorHorizontal() {
+        return remap(width, height, -1, 0, width - 1, 0, 1, 0);
+    }
+
+    /**
+     * The view mirrored top to bottom.
+     */
+    public PictureView mirrorVertical() {
+        return remap(width, height, 1, 0, 0, 0, -1, height - 1);
+    }
+
+    /**
+     * A picture showing the view. A view of a whole picture, unchanged, is
+     * that picture; any other view gives a picture whose pixels are drawn
+     * the first time they are needed.
+     */
+    public PixelPicture toPicture() {
+        if (colors.length == 0 && xx == 1 && xy == 0 && tx == 0 && yx == 0 && yy == 1
+            && ty == 0 && width == parent.getWidth() && height == parent.getHeight()) {
+            return parent;
+        }
+        return PixelPicture.lazy(this);
+    }
+
+    /**
+     * Draws the view into a new packed array of width * height pixels, in
+     * parallel bands of rows. Every pixel is written once: a border row is
+     * filled around the content, and the content is copied from the parent
+     * by RasterTransforms.copy.
+     */
+    int[] render() {
+        int[] src = parent.data();
+        int pw = parent.getWidth();
+        int[] tgt = new int[width * height];
+        // parent index of view pixel (x, y) is start + x * stepX + y * stepY
+        int start = ty * pw + tx;
+        int stepX = xx + yx * pw;
+        int stepY = xy + yy * pw;
+        TileScheduler.forEachRow(width, height, RasterTransforms.BLOCK, (y0, y1) -> {
+            for (int y = y0; y < y1; y++) {
+                int row = y * width;
+                for (int i = 0; i < colors.length; i++) {
+                    int[] inner = i == 0 ? content : frames;
+                    int in = i == 0 ? 0 : 4 * (i - 1);
+                    int o = 4 * i;
+                    if (y < frames[o + 1] || y >= frames[o + 3]) {
+                        continue;
+                    }
+                    if (y >= inner[in + 1] && y < inner[in + 3] && inner[in] < inner[in + 2]) {
+                        Arrays.fill(tgt, row + frames[o], row + inner[in], colors[i]);
+                        Arrays.fill(tgt, row + inner[in + 2], row + frames[o + 2],
+                                              colors[i]);
+                    } else {
+                        Arrays.fill(tgt, row + frames[o], row + frames[o + 2],
+                                              colors[i]);
+                    }
+                }
+            }
+            int cy0 = Math.max(y0, content[1]);
+            int cy1 = Math.min(y1, content[3]);
+            if (cy0 < cy1 && content[0] < content[2]) {
+                RasterTransforms.copy(src, start, stepX, stepY, tgt, width,
+                                      content[0], content[2], cy0, cy1);
+            }
+        });
+        return tgt;
+    }
+
+    // The view of size w x h whose pixel (x, y) is pixel
+    // (ax * x + ay * y + ox, bx * x + by * y + oy) of this one
+    private PictureView remap(int w, int h, int ax, int ay, int ox, int bx, int by, int oy) {
+        int[] c = move(content, 0, w, h, ax, ay, ox, bx, by, oy);
+        int[] f = new int[frames.length];
+        for (int i = 0; i < frames.length; i += 4) {
+            System.arraycopy(move(frames, i, w, h, ax, ay, ox, bx, by, oy), 0, f, i, 4);
+        }
+        return new PictureView(parent, w, h,
+                               xx * ax + xy * bx, xx * ay + xy * by, xx * ox + xy * oy + tx,
+                               yx * ax + yy * bx, yx * ay + yy * by, yx * ox + yy * oy + ty,
+                               c, f, colors);
+    }
+
+    // Where rectangle r[i..i+3] of this view lands in the view given by the
+    // remap arguments, cut down to its w x h bounds
+    private static int[] move(int[] r, int i, int w, int h,
+                              int ax, int ay, int ox, int bx, int by, int oy) {
+        if (r[i] >= r[i + 2] || r[i + 1] >= r[i + 3]) {
+            return new int[4];
+        }
+        // the map is an orthogonal matrix M plus (ox, oy), so a point p of
+        // this view is at M^T (p - o) in the new one; move two corners
+        int px0 = r[i] - ox;
+        int py0 = r[i + 1] - oy;
+        int px1 = r[i + 2] - 1 - ox;
+        int py1 = r[i + 3] - 1 - oy;
+        int x0 = ax * px0 + bx * py0;
+        int y0 = ay * px0 + by * py0;
+        int x1 = ax * px1 + bx * py1;
+        int y1 = ay * px1 + by * py1;
+        int[] m = {
+            Math.max(0, Math.min(x0, x1)), Math.max(0, Math.min(y0, y1)),
+            Math.min(w, Math.max(x0, x1) + 1), Math.min(h, Math.max(y0, y1) + 1)
+        };
+        if (m[0] >= m[2] || m[1] >= m[3]) {
+            return new int[4];
+        }
+        return m;
+    }
+
+    private static boolean inside(int[] r, int i, int x, int y) {
+        return x >= r[i] && x < r[i + 2] && y >= r[i + 1] && y < r[i + 3];
+    }
+}
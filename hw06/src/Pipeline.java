@@ -0,0 +1,124 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.UnaryOperator;
+
+/**
+ * A chain of image manipulations that is compiled into as few passes over
+ * the pixels as possible.
+ *
+ * Chaining manipulations directly (as Effects used to) materializes a whole
+ * new picture after every step. A Pipeline instead composes consecutive
+ * point-wise steps (PointOps) into one transform and runs it in a single
+ * pass. It only materializes a picture when it reaches a step that needs the
+ * whole picture at once, such as blur or reducePalette. Steps that only move
+ * pixels around, such as border, give a PictureView, which costs nothing
+ * unless a later pass reads its pixels.
+ *
+ * Contrast needs the average intensity of its input, which is gathered while
+ * the preceding pass runs, so it does not add a pass of its own.
+ *
+ * For example, the 1890s effect is
+ *
+ *   new Pipeline()
+ *       .map(PointOps.grayScaleLuminosity())
+ *       .map(PointOps.scaleColors(1.0, 0.95, 0.75))
+ *       .map(PointOps.alphaBlend(0.5, PointOps.vignette()))
+ *       .map(PointOps.scaleColors(1.1, 1.1, 1.1))
+ *       .run(pic);
+ *
+ * which makes one pass over the pixels instead of five.
+ */
+public class Pipeline {
+
+    // One step of the pipeline. Exactly one of the fields is set.
+    private static class Step {
+        final PointOp op;
+        final UnaryOperator<PixelPicture> whole;
+        final Double contrast;
+
+        Step(PointOp op, UnaryOperator<PixelPicture> whole, Double contrast) {
+            this.op = op;
+            this.whole = whole;
+            this.contrast = contrast;
+        }
+    }
+
+    private final List<Step> steps = new ArrayList<Step>();
+
+    /**
+     * Adds a point-wise step, which is fused with its neighbors.
+     */
+    public Pipeline map(PointOp op) {
+        steps.add(new Step(op, null, null));
+        return this;
+    }
+
+    /**
+     * Adds a step that needs the whole picture, such as blur or border.
+     * The pipeline materializes its input before running it.
+     */
+    public Pipeline apply(UnaryOperator<PixelPicture> whole) {
+        steps.add(new Step(null, whole, null));
+        return this;
+    }
+
+    /**
+     * Adds AdvancedManipulations.adjustContrast.
+     */
+    public Pipeline contrast(double multiplier) {
+        steps.add(new Step(null, null, multiplier));
+        return this;
+    }
+
+    /**
+     * Runs the pipeline.
+     *
+     * @param pic the original picture, which is not modified
+     * @return the result of applying every step in order
+     */
+    public PixelPicture run(PixelPicture pic) {
+        int w = pic.getWidth();
+        int h = pic.getHeight();
+        // the pixels of pic, once a pass needs them; point-wise passes run
+        // in place, so this is always a copy nobody else has
+        int[] bmp = null;
+        PointOp pending = null;
+
+        for (Step s : steps) {
+            if (s.op != null) {
+                pending = pending == null ? s.op : pending.then(s.op);
+            } else if (s.contrast != null) {
+                if (bmp == null) {
+                    bmp = pic.getPixels();
+                }
+                long sum = PointOps.runAndSum(bmp, w, h, pending);
+                pending = PointOps.contrast(PointOps.averageIntensity(sum, w * h), s.contrast);
+            } else {
+                if (pending != null) {
+                    if (bmp == null) {
+                        bmp = pic.getPixels();
+                    }
+                    PointOps.run(bmp, w, h, pending);
+                    pending = null;
+                }
+                if (bmp != null) {
+                    pic = PixelPicture.wrap(w, h, bmp);
+                    bmp = null;
+                }
+                // whole-picture steps may hand back views (see PictureView),
+                // which are only drawn if a later pass needs their pixels
+                pic = s.whole.apply(pic);
+                w = pic.getWidth();
+                h = pic.getHeight();
+            }
+        }
+
+        if (pending != null) {
+            if (bmp == null) {
+                bmp = pic.getPixels();
+            }
+            PointOps.run(bmp, w, h, pending);
+        }
+        return bmp == null ? pic : PixelPicture.wrap(w, h, bmp);
+    }
+}
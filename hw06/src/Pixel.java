@@ -18,38 +18,50 @@
  * <p>
  * This data structure is immutable. Once a {@code Pixel} is created, it cannot
  * be modified.
+ * <p>
+ * Because of that, pixels of the same color can be shared. {@link #of} and
+ * {@link #fromRGB} return a shared instance from a small cache of recently
+ * used colors when they can, so code that turns many packed pixels back into
+ * {@code Pixel}s does not allocate one object per pixel.
  */
 public class Pixel implements Comparable<Pixel> {
 
 
-	private int r; 
-	private int g; 
-	private int b; 
+	private final int r; 
+	private final int g; 
+	private final int b; 
+
+    // Shared pixels of recently used colors. Each color has exactly one
+    // slot, so a lookup is a single array read; a color that lands in an
+    // occupied slot replaces its occupant. Races between threads are benign:
+    // the fields are final, so any Pixel read from here is complete.
+    private static final int CACHE_BITS = 12;
+    private static final Pixel[] CACHE = new Pixel[1 << CACHE_BITS];
 	
     /**
      * The {@code Pixel} representing the RGB color black.
      */
-    public static final Pixel BLACK = new Pixel(0,0,0);
+    public static final Pixel BLACK = of(0,0,0);
 
     /**
      * The {@code Pixel} representing the RGB color blue.
      */
-    public static final Pixel BLUE = new Pixel(0,0,255);
+    public static final Pixel BLUE = of(0,0,255);
 
     /**
      * The {@code Pixel} representing the RGB color red.
      */
-    public static final Pixel RED = new Pixel(255,0,0);
+    public static final Pixel RED = of(255,0,0);
 
     /**
      * The {@code Pixel} representing the RGB color green.
      */
-    public static final Pixel GREEN = new Pixel(0,255,0);
+    public static final Pixel GREEN = of(0,255,0);
 
     /**
      * The {@code Pixel} representing the RGB color white.
      */
-    public static final Pixel WHITE = new Pixel(255,255,255);
+    public static final Pixel WHITE = of(255,255,255);
 
 
     /**
@@ -88,29 +100,45 @@ public class Pixel implements Comparable<Pixel> {
      * @param c the array of components
      */
     Pixel(int[] c) {
-        // TODO: Implement this
-    	for (int i = 0 ; i < 3 && i < c.length; i++) {
-    		
-    		if (i == 0) {
-    			this.r = Math.min(Math.max(0, c[i]),255);
-    		} else if (i==1) {
-    			this.g = Math.min(Math.max(0, c[i]),255);
-    		} else if (i==2) { 
-    			this.b = Math.min(Math.max(0, c[i]),255);
-    		}
-    	}
-    	
-    	if (c.length == 0) {
-    		this.r = 0;
-    		this.g = 0;
-    		this.b = 0;
-    	}
-    	else if (c.length == 1) {
-    		this.g = 0;
-    		this.b = 0; 
-    	} else if (c.length ==  2) {
-    		this.b = 0;
-    	}
+    	this(component(c, 0), component(c, 1), component(c, 2));
+    }
+
+    // The i-th entry of c, or 0 if there is no such entry
+    private static int component(int[] c, int i) {
+    	return c != null && i < c.length ? c[i] : 0;
+    }
+
+    /**
+     * Gets a pixel with the provided color intensities, clipped like the
+     * constructor does. The pixel may be shared with other callers asking
+     * for the same color.
+     *
+     * @param r the red component of the pixel
+     * @param g the green component of the pixel
+     * @param b the blue component of the pixel
+     * @return a pixel of that color
+     */
+    public static Pixel of(int r, int g, int b) {
+        return fromRGB(rgb(r, g, b));
+    }
+
+    /**
+     * Gets a pixel from a color packed as 0xRRGGBB, the format of
+     * PixelPicture.getPixels(). Anything above the low 24 bits is ignored.
+     * The pixel may be shared with other callers asking for the same color.
+     *
+     * @param rgb the packed color
+     * @return a pixel of that color
+     */
+    public static Pixel fromRGB(int rgb) {
+        rgb &= 0xffffff;
+        int slot = (rgb * 0x9e3779b1) >>> (32 - CACHE_BITS);
+        Pixel p = CACHE[slot];
+        if (p == null || p.getRGB() != rgb) {
+            p = new Pixel((rgb >> 16) & 0xff, (rgb >> 8) & 0xff, rgb & 0xff);
+            CACHE[slot] = p;
+        }
+        return p;
     }
 
     /**
@@ -155,6 +183,32 @@ public class Pixel implements Comparable<Pixel> {
         return x; // TODO: Implement this
     }
 
+    /**
+     * Accessor for the pixel packed into a single int as 0xRRGGBB, the
+     * format used by PixelPicture.getPixels().
+     *
+     * @return the packed RGB value of this pixel
+     */
+    public int getRGB() {
+        return (this.r << 16) | (this.g << 8) | this.b;
+    }
+
+    /**
+     * Packs three color components into a single 0xRRGGBB int, clipping
+     * each one to [0, 255] exactly like the {@code Pixel} constructor does.
+     *
+     * @param r the red component
+     * @param g the green component
+     * @param b the blue component
+     * @return the packed RGB value
+     */
+    public static int rgb(int r, int g, int b) {
+        r = Math.min(Math.max(0, r), 255);
+        g = Math.min(Math.max(0, g), 255);
+        b = Math.min(Math.max(0, b), 255);
+        return (r << 16) | (g << 8) | b;
+    }
+
     /**
      * Determines the level of similarity between this pixel and another by
      * summing the absolute values of the differences between corresponding
@@ -225,13 +279,9 @@ public class Pixel implements Comparable<Pixel> {
 
     @Override
     public int hashCode() {
-        int h = 0;
-        int[] components = getComponents();
-
-        for (int k = 0; k < components.length; k++) {
-            h += k * 255 + components[k];
-        }
-        return h;
+        // the sum over the components c[k] of k * 255 + c[k], without
+        // allocating the components array
+        return this.r + (255 + this.g) + (2 * 255 + this.b);
     }
 
     @Override
@@ -0,0 +1,62 @@
+/**
+ * Bulk versions of the point-wise manipulations, transforming a range of
+ * packed pixels [start, end) in place.
+ *
+ * These exist for implementations that work on many pixels at once, such
+ * as VectorKernels, which uses the SIMD instructions of the CPU through the
+ * jdk.incubator.vector module. Every implementation must produce exactly the
+ * same pixels as the PointOps they replace, down to the rounding of every
+ * component.
+ *
+ * VectorKernels lives in src/vector and is compiled separately, since it
+ * needs a JDK with the module and the --add-modules flag (the Makefile does
+ * both when it can). PointOps only loads it when asked to with
+ * -Dpennstagram.vector=true, and otherwise runs the scalar PointOps.
+ *
+ * It is off by default because it is not faster everywhere. On JDK 17 the
+ * conversions between int, long and double vectors of different sizes are
+ * not all compiled to single instructions, and scaleColors on a 12 megapixel
+ * picture took about 600ms against 160ms for the scalar loop (with AVX-512).
+ * Measure with the benchmarks in bench/ before turning it on.
+ */
+interface PixelKernels {
+
+    void grayScaleLuminosity(int[] bmp, int start, int end);
+
+    void grayScaleAverage(int[] bmp, int start, int end);
+
+    void invertColors(int[] bmp, int start, int end);
+
+    void scaleColors(int[] bmp, int start, int end, double rfactor, double gfactor, double bfactor);
+
+    void contrast(int[] bmp, int start, int end, int avg, double multiplier);
+
+    /**
+     * Blends other into bmp, as SimpleManipulations.alphaBlend(alpha, bmp, other).
+     */
+    void blend(int[] bmp, int[] other, int start, int end, double alpha);
+
+    /**
+     * Loads VectorKernels if -Dpennstagram.vector=true is set. Returns null
+     * if it is not, or if VectorKernels was not compiled or the module is
+     * not available.
+     */
+    static PixelKernels load() {
+        if (!Boolean.getBoolean("pennstagram.vector")) {
+            return null;
+        }
+        return vector();
+    }
+
+    /**
+     * Loads VectorKernels whatever pennstagram.vector says, or returns null
+     * if it cannot be loaded.
+     */
+    static PixelKernels vector() {
+        try {
+            return (PixelKernels) Class.forName("VectorKernels").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+}
@@ -19,30 +19,66 @@ import javax.swing.*;
  *
  * PixelPictures are immutable. Although they provide access to a 2D 
  * array of pixels, this array is a copy of the one stored in the NewPic.
- * The original image cannot be modified.
+ * The original image cannot be modified. Since nothing ever writes to a
+ * picture's pixels once it is made, copies of a picture, and the icons
+ * made from it, share its pixels instead of duplicating them.
+ *
+ * Internally the image is stored as packed RGB ints (0xRRGGBB, one int per
+ * pixel, row-major so that (x,y) lives at index y * width + x). Filters that
+ * care about speed should use getPixels() and the packed constructor rather
+ * than getBitmap(), which allocates one Pixel object per pixel.
+ *
+ * A picture can also be a PictureView of another one (a border, crop,
+ * mirror or rotation of it), which holds no pixels of its own until
+ * something needs its whole raster: data(), saving, or making an icon.
+ * Until then its size, getRGB and getPixels are answered from the view.
  */ 
 public class PixelPicture {
 
-    private BufferedImage bufferedImage;
+    // The color model used by BufferedImage.TYPE_INT_RGB
+    private static final DirectColorModel RGB_MODEL =
+        new DirectColorModel(24, 0xff0000, 0x00ff00, 0x0000ff);
+
+    // Null only while the picture is a view that has not been drawn. Set
+    // before view is cleared, so whoever sees a null view sees the image
+    private volatile BufferedImage bufferedImage;
     private WritableRaster raster;
 
+    // What this picture shows, if it has not been drawn yet
+    private volatile PictureView view;
+
+    // Built the first time it is asked for; pictures never change, so it
+    // stays valid
+    private volatile SummedAreaTable summedAreaTable;
+
+    // The hash of the pixels, once computed or handed over; null until then
+    private volatile Long contentHash;
+
     /**
      * Copies a NewPic.
+     *
+     * Pictures never change, so the copy shares the pixels (and the
+     * summed-area table, if there is one) of the original instead of
+     * duplicating them. This takes constant time and memory.
      * 
      * @param other NewPic the other NewPic to copy
      */ 
     public PixelPicture(PixelPicture other) {
-        bufferedImage = 
-            new BufferedImage(other.getWidth(),
-                              other.getHeight(),
-                              BufferedImage.TYPE_INT_RGB);
-
-        raster = bufferedImage.getRaster();
-        raster.setRect(other.bufferedImage.getRaster());
+        PictureView v = other.view;
+        contentHash = other.contentHash;
+        if (v != null) {
+            view = v;
+            return;
+        }
+        raster = other.raster;
+        bufferedImage = other.bufferedImage;
+        summedAreaTable = other.summedAreaTable;
     }
 
     /** 
      * Creates a NewPic by loading the given file or URL.
+     * Files in the RawImage format (see save) are memory-mapped and
+     * copied straight into the picture instead of being decoded.
      *  
      * @param filename the location of the image file to read
      */ 
@@ -60,21 +96,124 @@ public class PixelPicture {
         setBitmap(bmp);
     }
 
+    /**
+     * Creates a picture of the given size from packed RGB pixels. The array
+     * is in row-major order: the pixel at (x,y) is rgb[y * width + x], with
+     * red in bits 16-23, green in bits 8-15 and blue in bits 0-7. The array
+     * is copied, so later changes to it do not affect the picture.
+     *
+     * @param width  the width of the image
+     * @param height the height of the image
+     * @param rgb    the packed pixels, at least width * height long
+     */
+    public PixelPicture(int width, int height, int[] rgb) {
+        this(width, height, rgb, true);
+    }
+
+    private PixelPicture(int width, int height, int[] rgb, boolean copy) {
+        if (width <= 0 || height <= 0) {
+            throw new IndexOutOfBoundsException("expected non-empty image, got "
+                                                + width + "x" + height);
+        }
+        int n = width * height;
+        if (rgb.length < n) {
+            throw new IndexOutOfBoundsException("expected " + n + " pixels, got " + rgb.length);
+        }
+        if (copy) {
+            int[] data = new int[n];
+            System.arraycopy(rgb, 0, data, 0, n);
+            rgb = data;
+        }
+        raster = Raster.createPackedRaster(new DataBufferInt(rgb, n), width, height, width,
+                                           RGB_MODEL.getMasks(), null);
+        bufferedImage = new BufferedImage(RGB_MODEL, raster, false, null);
+    }
+
+    /**
+     * Creates a picture that takes ownership of the given packed pixel array
+     * without copying it. The caller must not modify the array afterwards.
+     * This is what the manipulations use to hand back freshly computed images.
+     */
+    static PixelPicture wrap(int width, int height, int[] rgb) {
+        return new PixelPicture(width, height, rgb, false);
+    }
+
+    private PixelPicture(PictureView view) {
+        this.view = view;
+    }
+
+    /**
+     * Creates a picture showing a view, which is only drawn when its whole
+     * raster is needed. See PictureView.toPicture.
+     */
+    static PixelPicture lazy(PictureView view) {
+        return new PixelPicture(view);
+    }
+
+    /**
+     * The view this picture shows, if it has not been drawn yet, or null.
+     */
+    PictureView lazyView() {
+        return view;
+    }
+
+    /**
+     * Draws the picture now if it is a view, so that the work is done on
+     * this thread rather than by whoever first needs the raster.
+     */
+    void materialize() {
+        image();
+    }
+
+    // The image, drawing the view first if there is one
+    private BufferedImage image() {
+        BufferedImage b = bufferedImage;
+        if (b == null) {
+            synchronized (this) {
+                b = bufferedImage;
+                if (b == null) {
+                    PictureView v = view;
+                    int[] rgb = v.render();
+                    raster = Raster.createPackedRaster(
+                        new DataBufferInt(rgb, rgb.length), v.getWidth(), v.getHeight(),
+                        v.getWidth(), RGB_MODEL.getMasks(), null);
+                    b = new BufferedImage(RGB_MODEL, raster, false, null);
+                    bufferedImage = b;
+                    view = null; // let go of the original
+                }
+            }
+        }
+        return b;
+    }
+
     /** 
      * Get the width of the image.
      */ 
-    public int getWidth() { return bufferedImage.getWidth(); }
+    public int getWidth() {
+        PictureView v = view;
+        return v != null ? v.getWidth() : bufferedImage.getWidth();
+    }
    
     /** 
      * Get the height of the image.
      */ 
-    public int getHeight() { return bufferedImage.getHeight(); }
+    public int getHeight() {
+        PictureView v = view;
+        return v != null ? v.getHeight() : bufferedImage.getHeight();
+    }
 
     private void load(String filename) {
         ImageIcon icon;
 
         try {
-            if ((new File(filename)).exists())
+            File file = new File(filename);
+            if (RawImage.isRaw(file)) {
+                PixelPicture raw = RawImage.read(file);
+                bufferedImage = raw.bufferedImage;
+                raster = raw.raster;
+                return;
+            }
+            if (file.exists())
                 icon = new ImageIcon(filename);
             else {
                 java.net.URL u = new java.net.URL(filename);
@@ -94,6 +233,13 @@ public class PixelPicture {
         raster = bufferedImage.getRaster();
     }
 
+    // The packed pixels backing this image, drawing a view first. Never
+    // hand this array out of the package, and never write to it.
+    int[] data() {
+        image();
+        return ((DataBufferInt) raster.getDataBuffer()).getData();
+    }
+
     private void setBitmap(Pixel[][] bmp) {
         int w = bmp.length;
 
@@ -108,6 +254,7 @@ public class PixelPicture {
 
         bufferedImage = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
         raster = bufferedImage.getRaster();
+        int[] data = data();
 
         for (int x = 0; x < w; x++) {
             if (bmp[x].length != h) {
@@ -115,7 +262,7 @@ public class PixelPicture {
             }
 
             for (int y = 0; y < h; y++) {
-                raster.setPixel(x, y, bmp[x][y].getComponents());
+                data[y * w + x] = bmp[x][y].getRGB();
             }
         }
     }
@@ -136,56 +283,145 @@ public class PixelPicture {
         int h = getHeight();
 
         Pixel[][] bmp = new Pixel[w][h];
+        int[] data = data();
 
         for (int x = 0; x < w; x++) {
             for (int y = 0; y < h; y++) {
-                bmp[x][y] = new Pixel(raster.getPixel(x, y, (int[]) null));
+                bmp[x][y] = Pixel.fromRGB(data[y * w + x]);
             }
         }
 
         return bmp;
     }
+
+    /**
+     * Gets the packed RGB pixels of the image as a single array. Like
+     * getBitmap, this returns a copy: editing it will not affect the picture.
+     *
+     * The array is in row-major order, so the pixel at (x,y) is at index
+     * y * getWidth() + x. Each entry holds red in bits 16-23, green in
+     * bits 8-15 and blue in bits 0-7; the top byte is always zero.
+     *
+     * @return a new array of getWidth() * getHeight() packed pixels
+     */
+    public int[] getPixels() {
+        PictureView v = view;
+        if (v != null) {
+            return v.render();
+        }
+        int[] data = data();
+        int n = getWidth() * getHeight();
+        int[] copy = new int[n];
+        for (int i = 0; i < n; i++) {
+            copy[i] = data[i] & 0xffffff;
+        }
+        return copy;
+    }
+
+    /**
+     * Gets a single packed RGB pixel without allocating.
+     *
+     * @param x the column of the pixel
+     * @param y the row of the pixel
+     * @return the pixel at (x,y) as 0xRRGGBB
+     */
+    public int getRGB(int x, int y) {
+        if (x < 0 || y < 0 || x >= getWidth() || y >= getHeight()) {
+            throw new IndexOutOfBoundsException("(" + x + ", " + y + ") is outside the image");
+        }
+        PictureView v = view;
+        if (v != null) {
+            return v.getRGB(x, y);
+        }
+        return data()[y * getWidth() + x] & 0xffffff;
+    }
    
+    /**
+     * Gets the summed-area table of the picture, which gives the sum, mean
+     * and variance of each component over any rectangle in constant time.
+     * The table is built the first time this is called and kept with the
+     * picture, so later calls (and later filters) get it for free. It takes
+     * three ints per pixel.
+     */
+    public SummedAreaTable getSummedAreaTable() {
+        SummedAreaTable t = summedAreaTable;
+        if (t == null) {
+            synchronized (this) {
+                t = summedAreaTable;
+                if (t == null) {
+                    t = new SummedAreaTable(getWidth(), getHeight(), data());
+                    summedAreaTable = t;
+                }
+            }
+        }
+        return t;
+    }
+
+    /**
+     * The summed-area table of the picture if it has already been built,
+     * or null. For filters that can use the table but would not gain
+     * enough to build it.
+     */
+    SummedAreaTable cachedSummedAreaTable() {
+        return summedAreaTable;
+    }
+
+    /**
+     * Gets a 64-bit hash of the pixels of the picture, which two pictures
+     * with the same size and pixels share however they were made. See
+     * ContentHash. The hash is computed the first time this is called, in
+     * one parallel pass over the pixels, and kept with the picture.
+     */
+    public long getContentHash() {
+        Long h = contentHash;
+        if (h == null) {
+            // racing threads compute the same value, so no lock is needed
+            h = ContentHash.of(data(), getWidth(), getHeight());
+            contentHash = h;
+        }
+        return h;
+    }
+
+    /**
+     * The hash of the pixels if it is already known, or null.
+     */
+    Long knownContentHash() {
+        return contentHash;
+    }
+
+    /**
+     * Records the hash of the pixels, for code that knows it without
+     * reading them, such as UndoHistory when it rebuilds a picture it has
+     * seen before. It must be what getContentHash would compute.
+     */
+    void setContentHash(long hash) {
+        contentHash = hash;
+    }
+
     /**
      * Creates an ImageIcon, suitable for display by Swing components.
+     *
+     * The icon shares this picture's pixels rather than copying them, so
+     * showing a picture costs no more than the icon itself. Swing only
+     * reads the image, but anything that draws on the icon's image would
+     * change the picture too; draw on a copy instead.
      * 
-     * @return ImageIcon pointing at a copy of this image
+     * @return ImageIcon showing this image
      */
     public ImageIcon toImageIcon() {
-        PixelPicture copy = new PixelPicture(this);
-        return new ImageIcon(copy.bufferedImage);
+        return new ImageIcon(image());
     }
    
     /** 
      * Compute the difference between two images. 
      *
      * This difference sums the pixel-by-pixel differences
-     * between components of a pixel. It is most useful 
-     * for SMALL images. 
+     * between components of a pixel. Totals too large for an int
+     * give Integer.MAX_VALUE, as do images of different sizes;
+     * ImageDiff gives the exact total for images of any size.
      */
     public static int diff(PixelPicture p0, PixelPicture p1) {
-        
-	    
-	if (p0.getHeight() != p1.getHeight() || 
-            p0.getWidth() != p1.getWidth()) {
-            return Integer.MAX_VALUE;
-        }
-        int diff = 0;
-        Pixel [][] b0 = p0.getBitmap();
-        Pixel [][] b1 = p1.getBitmap();
-        int w = p0.getWidth();
-        int h = p0.getHeight();
-        for (int y=0; y<h; y++) {
-            for (int x=0; x<w; x++) {
-                Pixel pix0 = b0[x][y];
-                Pixel pix1 = b1[x][y];
-                diff +=
-                    Math.abs(pix0.getRed()  - pix1.getRed()  ) + 
-                    Math.abs(pix0.getBlue() - pix1.getBlue() ) + 
-                    Math.abs(pix0.getGreen()- pix1.getGreen()); 
-            }
-        }
-        return diff;
+        return (int) Math.min(Integer.MAX_VALUE, ImageDiff.total(p0, p1));
     }
    
     /** Print all of the pixels in the image to the console. 
@@ -208,6 +444,15 @@ public class PixelPicture {
         }
     }
     private static Pattern suffix = Pattern.compile(".*\\.(\\w{3,4})");
+
+    /**
+     * Saves the image to a file. The format is chosen from the file name's
+     * extension (png if there is none). Names ending in ".raw" are written
+     * in the uncompressed RawImage format, which is much faster to save and
+     * load than any compressed format.
+     *
+     * @param filename the file to write
+     */
     public void save(String filename) {
         String type = "png";
 
@@ -218,7 +463,11 @@ public class PixelPicture {
         }
 
         try {
-            ImageIO.write(bufferedImage, type, new File(filename)); 
+            if (type.equalsIgnoreCase("raw")) {
+                RawImage.write(new File(filename), getWidth(), getHeight(), data());
+                return;
+            }
+            ImageIO.write(image(), type, new File(filename)); 
         } catch(IOException e) { 
             throw new RuntimeException(e); 
         }
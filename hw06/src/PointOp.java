@@ -0,0 +1,54 @@
+/**
+ * A per-pixel color transform.
+ *
+ * A PointOp maps the packed RGB value of one pixel (0xRRGGBB, see
+ * PixelPicture.getPixels) to a new packed value. It may look at the pixel's
+ * position and the size of the picture, which is what lets position-dependent
+ * effects like vignette be fused with other point-wise operations, but it
+ * must not look at any other pixel.
+ *
+ * Because every pixel is independent, consecutive PointOps can be composed
+ * with then() and run in a single pass over the picture.
+ */
+public interface PointOp {
+
+    /**
+     * Transforms one pixel.
+     *
+     * @param rgb    the packed color of the pixel
+     * @param x      the column of the pixel
+     * @param y      the row of the pixel
+     * @param width  the width of the picture
+     * @param height the height of the picture
+     * @return the new packed color of the pixel
+     */
+    int apply(int rgb, int x, int y, int width, int height);
+
+    /**
+     * Composes this transform with another one, which is applied to the
+     * result of this one. Consecutive ChannelLuts are composed into a
+     * single table.
+     */
+    default PointOp then(PointOp next) {
+        ChannelLut lut = ChannelLut.from(next);
+        if (lut != null) {
+            return lut.after(this);
+        }
+        PointOp first = this;
+        return (rgb, x, y, w, h) -> next.apply(first.apply(rgb, x, y, w, h), x, y, w, h);
+    }
+
+    /**
+     * Applies this transform to every pixel of a picture in a single pass.
+     *
+     * @param pic the original picture, which is not modified
+     * @return a new, transformed picture
+     */
+    default PixelPicture applyTo(PixelPicture pic) {
+        int w = pic.getWidth();
+        int h = pic.getHeight();
+        int[] bmp = pic.getPixels();
+        PointOps.run(bmp, w, h, this);
+        return PixelPicture.wrap(w, h, bmp);
+    }
+}
@@ -0,0 +1,226 @@
+/**
+ * The point-wise operations of SimpleManipulations and AdvancedManipulations,
+ * as PointOps that can be fused together (see Pipeline).
+ *
+ * The manipulations themselves are implemented with these, so a fused
+ * pipeline produces exactly the same pixels as calling the manipulations one
+ * after the other.
+ *
+ * The transforms that work on each component on its own (invertColors,
+ * scaleColors and contrast) are ChannelLuts, so chains of them collapse into
+ * one table.
+ *
+ * When the SIMD kernels of PixelKernels are available, a transform that is
+ * run on its own (not fused with others) and has a bulk version uses them.
+ */
+public class PointOps {
+
+    // The bulk kernels, or null to run everything pixel by pixel
+    static final PixelKernels KERNELS = PixelKernels.load();
+
+    // A transform of a range of packed pixels, in place
+    interface RangeKernel {
+        void apply(PixelKernels k, int[] bmp, int start, int end);
+    }
+
+    // A PointOp that can also run through PixelKernels. Composing it with
+    // then() loses the bulk version, and the fused op runs pixel by pixel.
+    private static final class BulkOp implements PointOp {
+        private final PointOp op;
+        private final RangeKernel range;
+
+        BulkOp(PointOp op, RangeKernel range) {
+            this.op = op;
+            this.range = range;
+        }
+
+        @Override
+        public int apply(int rgb, int x, int y, int width, int height) {
+            return op.apply(rgb, x, y, width, height);
+        }
+    }
+
+    private static PointOp bulk(PointOp op, RangeKernel range) {
+        return KERNELS == null ? op : new BulkOp(op, range);
+    }
+
+    /**
+     * The transform inside a bulk one, or op itself if it is not bulk.
+     */
+    static PointOp unwrap(PointOp op) {
+        return op instanceof BulkOp ? ((BulkOp) op).op : op;
+    }
+
+    /**
+     * Runs a transform over every pixel of a packed picture, in place.
+     */
+    static void run(int[] bmp, int w, int h, PointOp op) {
+        if (op instanceof BulkOp) {
+            RangeKernel range = ((BulkOp) op).range;
+            TileScheduler.forEachPixel(w * h, (start, end) -> range.apply(KERNELS, bmp, start, end));
+            return;
+        }
+        TileScheduler.forEachRow(w, h, 1, (start, end) -> {
+            for (int y = start; y < end; y++) {
+                int off = y * w;
+                for (int x = 0; x < w; x++) {
+                    bmp[off + x] = op.apply(bmp[off + x], x, y, w, h);
+                }
+            }
+        });
+    }
+
+    /**
+     * Runs a transform over every pixel of a packed picture, in place, and
+     * returns the sum of all color components of the result.
+     */
+    static long runAndSum(int[] bmp, int w, int h, PointOp op) {
+        return TileScheduler.sum(h, Math.max(1, TileScheduler.TILE_PIXELS / w), (start, end) -> {
+            long sum = 0;
+            for (int y = start; y < end; y++) {
+                int off = y * w;
+                for (int x = 0; x < w; x++) {
+                    int c = op == null ? bmp[off + x] : op.apply(bmp[off + x], x, y, w, h);
+                    bmp[off + x] = c;
+                    sum += ((c >> 16) & 0xff) + ((c >> 8) & 0xff) + (c & 0xff);
+                }
+            }
+            return sum;
+        });
+    }
+
+    /**
+     * The transform that leaves every pixel unchanged.
+     */
+    public static PointOp identity() {
+        return (rgb, x, y, w, h) -> rgb;
+    }
+
+    /**
+     * See SimpleManipulations.grayScaleLuminosity.
+     */
+    public static PointOp grayScaleLuminosity() {
+        return bulk((rgb, x, y, w, h) -> {
+            int r = (rgb >> 16) & 0xff;
+            int g = (rgb >> 8) & 0xff;
+            int b = rgb & 0xff;
+            int avg = (int) Math.round((0.299*r + 0.587*g + 0.114*b)/3.0);
+            return Pixel.rgb(avg, avg, avg);
+        }, PixelKernels::grayScaleLuminosity);
+    }
+
+    /**
+     * See SimpleManipulations.grayScaleAverage.
+     */
+    public static PointOp grayScaleAverage() {
+        return bulk((rgb, x, y, w, h) -> {
+            int r = (rgb >> 16) & 0xff;
+            int g = (rgb >> 8) & 0xff;
+            int b = rgb & 0xff;
+            int avg = (int) Math.round((r + g + b) / 3.0);
+            return Pixel.rgb(avg, avg, avg);
+        }, PixelKernels::grayScaleAverage);
+    }
+
+    /**
+     * See SimpleManipulations.invertColors.
+     */
+    public static PointOp invertColors() {
+        return bulk(ChannelLut.of(c -> 255 - c), PixelKernels::invertColors);
+    }
+
+    /**
+     * See SimpleManipulations.scaleColors.
+     */
+    public static PointOp scaleColors(double rfactor, double gfactor, double bfactor) {
+        return bulk(ChannelLut.of(c -> (int) Math.round(c * rfactor),
+                                  c -> (int) Math.round(c * gfactor),
+                                  c -> (int) Math.round(c * bfactor)),
+                    (k, bmp, start, end) -> k.scaleColors(bmp, start, end, rfactor, gfactor, bfactor));
+    }
+
+    /**
+     * See SimpleManipulations.vignette.
+     */
+    public static PointOp vignette() {
+        return (rgb, x, y, w, h) -> {
+            double cx = (w - 1) / 2.0;
+            double cy = (h - 1) / 2.0;   // cx, cy is center pixel in the image
+
+            double r  = Math.sqrt(cx * cx + cy * cy);
+            // a single pixel has no edges to darken
+            if (r == 0) {
+                return rgb;
+            }
+
+            double dx = (double) (x - cx);
+            double dy = (double) (y - cy);
+            double d  = Math.sqrt((dx * dx) + (dy * dy)) / r;
+            double factor = 1.0 - d * d;
+
+            return Pixel.rgb(
+                    (int) Math.round(((rgb >> 16) & 0xff) * factor),
+                    (int) Math.round(((rgb >> 8) & 0xff) * factor),
+                    (int) Math.round((rgb & 0xff) * factor));
+        };
+    }
+
+    /**
+     * Blends the results of two transforms of the same pixel, like
+     * SimpleManipulations.alphaBlend(alpha, first(pic), second(pic)).
+     */
+    public static PointOp alphaBlend(double alpha, PointOp first, PointOp second) {
+        return (rgb, x, y, w, h) -> blend(alpha,
+                first.apply(rgb, x, y, w, h), second.apply(rgb, x, y, w, h));
+    }
+
+    /**
+     * Blends a pixel with a transformed version of itself, like
+     * SimpleManipulations.alphaBlend(alpha, pic, other(pic)).
+     */
+    public static PointOp alphaBlend(double alpha, PointOp other) {
+        return (rgb, x, y, w, h) -> blend(alpha, rgb, other.apply(rgb, x, y, w, h));
+    }
+
+    /**
+     * The second half of AdvancedManipulations.adjustContrast: scales each
+     * component's distance from the given average intensity.
+     */
+    public static PointOp contrast(int avg, double multiplier) {
+        return bulk(ChannelLut.of(c -> (int) Math.round((c - avg) * multiplier) + avg),
+                    (k, bmp, start, end) -> k.contrast(bmp, start, end, avg, multiplier));
+    }
+
+    /**
+     * Blends fb into bmp pixel by pixel, as SimpleManipulations.alphaBlend.
+     */
+    static void blend(double alpha, int[] bmp, int[] fb) {
+        TileScheduler.forEachPixel(bmp.length, (start, end) -> {
+            if (KERNELS != null) {
+                KERNELS.blend(bmp, fb, start, end, alpha);
+                return;
+            }
+            for (int i = start; i < end; i++) {
+                bmp[i] = blend(alpha, bmp[i], fb[i]);
+            }
+        });
+    }
+
+    /**
+     * The weighted average of two packed pixels, component by component.
+     */
+    static int blend(double alpha, int p, int f) {
+        int r = SimpleManipulations.weightedAverage(alpha, (p >> 16) & 0xff, (f >> 16) & 0xff);
+        int g = SimpleManipulations.weightedAverage(alpha, (p >> 8) & 0xff, (f >> 8) & 0xff);
+        int b = SimpleManipulations.weightedAverage(alpha, p & 0xff, f & 0xff);
+        return Pixel.rgb(r, g, b);
+    }
+
+    /**
+     * The average intensity used by adjustContrast, given the sum of all
+     * components of a picture with n pixels.
+     */
+    static int averageIntensity(long sum, int n) {
+        return (int) (sum / ((long) n * 3));
+    }
+}
@@ -0,0 +1,29 @@
+/**
+ * A palette chosen for a picture, together with the mapping of colors to it.
+ * See OctreeQuantizer and MedianCutQuantizer.
+ */
+public interface Quantizer {
+
+    /**
+     * The packed colors of the palette.
+     */
+    int[] getPalette();
+
+    /**
+     * The palette color that a packed color maps to: for colors of the
+     * picture the palette was built from, the palette color that stands for
+     * them; for any other color, a nearby palette color.
+     */
+    int map(int rgb);
+
+    /**
+     * Maps every pixel of a packed picture to the palette, in place.
+     */
+    default void mapAll(int[] bmp) {
+        TileScheduler.forEachPixel(bmp.length, (start, end) -> {
+            for (int i = start; i < end; i++) {
+                bmp[i] = map(bmp[i]);
+            }
+        });
+    }
+}
@@ -0,0 +1,187 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * An uncompressed image file format for spilling intermediate results to
+ * disk without any encode or decode cost.
+ *
+ * The file is a 16 byte header followed by the pixels, all little-endian:
+ *
+ *   bytes  0-3   the magic number 'P' 'P' 'X' 'R'
+ *   bytes  4-7   the format version, currently 1
+ *   bytes  8-11  the width of the image
+ *   bytes 12-15  the height of the image
+ *   bytes 16-    width * height packed 0xRRGGBB ints, row-major
+ *
+ * which is exactly the in-memory layout of a PixelPicture, so reading is a
+ * single bulk copy through a memory-mapped buffer. Writing clears the top
+ * byte that decoded pictures keep in their pixels (see PixelPicture.data)
+ * on the way, a tile at a time.
+ *
+ * PixelPicture reads these files automatically, and writes them when saving
+ * to a name ending in ".raw".
+ */
+class RawImage {
+
+    static final int MAGIC = 0x52585050; // "PPXR" read as a little-endian int
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 16;
+
+    /**
+     * Determines whether a file starts with the raw image magic number.
+     */
+    static boolean isRaw(File f) {
+        if (!f.isFile() || f.length() < HEADER_BYTES) {
+            return false;
+        }
+        try (RandomAccessFile in = new RandomAccessFile(f, "r")) {
+            return Integer.reverseBytes(in.readInt()) == MAGIC;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Reads a raw image file into a new picture.
+     *
+     * @param f the file to read
+     * @return the picture stored in f
+     * @throws IOException if f cannot be read or is not a raw image file
+     */
+    static PixelPicture read(File f) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(f, "r");
+             FileChannel ch = file.getChannel()) {
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            buf.order(ByteOrder.LITTLE_ENDIAN);
+
+            if (ch.size() < HEADER_BYTES || buf.getInt(0) != MAGIC) {
+                throw new IOException(f + " is not a raw image file");
+            }
+            if (buf.getInt(4) != VERSION) {
+                throw new IOException(f + " has unsupported raw format version " + buf.getInt(4));
+            }
+            int w = buf.getInt(8);
+            int h = buf.getInt(12);
+            long n = (long) w * h;
+            if (w <= 0 || h <= 0 || n > Integer.MAX_VALUE
+                    || ch.size() < HEADER_BYTES + 4 * n) {
+                throw new IOException(f + " has a bad header (" + w + "x" + h + ")");
+            }
+
+            int[] rgb = new int[(int) n];
+            buf.position(HEADER_BYTES);
+            buf.slice().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().get(rgb);
+            return PixelPicture.wrap(w, h, rgb);
+        }
+    }
+
+    /**
+     * Writes packed pixels to a raw image file, replacing any existing file.
+     *
+     * @param f   the file to write
+     * @param w   the width of the image
+     * @param h   the height of the image
+     * @param rgb the packed pixels, at least w * h long
+     * @throws IOException if f cannot be written
+     */
+    static void write(File f, int w, int h, int[] rgb) throws IOException {
+        long size = HEADER_BYTES + 4L * w * h;
+        try (RandomAccessFile file = new RandomAccessFile(f, "rw");
+             FileChannel ch = file.getChannel()) {
+            file.setLength(size);
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buf.order(ByteOrder.LITTLE_ENDIAN);
+            buf.putInt(MAGIC).putInt(VERSION).putInt(w).putInt(h);
+
+            IntBuffer pixels = buf.slice().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+            putMasked(pixels, rgb, 0, w * h);
+            buf.force();
+        }
+    }
+
+    /**
+     * Reads the width and height from the header of a raw image file.
+     *
+     * @throws IOException if f cannot be read or is not a raw image file
+     */
+    static int[] readSize(File f) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(f, "r")) {
+            if (file.length() < HEADER_BYTES
+                    || Integer.reverseBytes(file.readInt()) != MAGIC) {
+                throw new IOException(f + " is not a raw image file");
+            }
+            int version = Integer.reverseBytes(file.readInt());
+            if (version != VERSION) {
+                throw new IOException(f + " has unsupported raw format version " + version);
+            }
+            int w = Integer.reverseBytes(file.readInt());
+            int h = Integer.reverseBytes(file.readInt());
+            if (w <= 0 || h <= 0 || file.length() < HEADER_BYTES + 4L * w * h) {
+                throw new IOException(f + " has a bad header (" + w + "x" + h + ")");
+            }
+            return new int[] { w, h };
+        }
+    }
+
+    /**
+     * Creates a raw image file of the given size with all pixels black,
+     * replacing any existing file. Rows are then filled with writeRows.
+     */
+    static void create(File f, int w, int h) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(f, "rw")) {
+            file.setLength(0);
+            file.setLength(HEADER_BYTES + 4L * w * h);
+            file.writeInt(Integer.reverseBytes(MAGIC));
+            file.writeInt(Integer.reverseBytes(VERSION));
+            file.writeInt(Integer.reverseBytes(w));
+            file.writeInt(Integer.reverseBytes(h));
+        }
+    }
+
+    /**
+     * Reads rows [y, y + rows) of a raw image file of width w, mapping only
+     * that part of the file.
+     */
+    static int[] readRows(File f, int w, int y, int rows) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(f, "r");
+             FileChannel ch = file.getChannel()) {
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY,
+                    HEADER_BYTES + 4L * w * y, 4L * w * rows);
+            int[] rgb = new int[w * rows];
+            buf.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().get(rgb);
+            return rgb;
+        }
+    }
+
+    /**
+     * Writes rows [y, y + rows) of a raw image file of width w, taking the
+     * pixels from rgb starting at index offset.
+     */
+    static void writeRows(File f, int w, int y, int rows, int[] rgb, int offset)
+            throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(f, "rw");
+             FileChannel ch = file.getChannel()) {
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_WRITE,
+                    HEADER_BYTES + 4L * w * y, 4L * w * rows);
+            putMasked(buf.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer(), rgb, offset, w * rows);
+            buf.force();
+        }
+    }
+
+    // Puts the low 24 bits of n pixels starting at rgb[offset]
+    private static void putMasked(IntBuffer out, int[] rgb, int offset, int n) {
+        int[] tile = new int[Math.min(n, TileScheduler.TILE_PIXELS)];
+        for (int i = 0; i < n; i += tile.length) {
+            int len = Math.min(tile.length, n - i);
+            for (int j = 0; j < len; j++) {
+                tile[j] = rgb[offset + i + j] & 0xffffff;
+            }
+            out.put(tile, 0, len);
+        }
+    }
+}
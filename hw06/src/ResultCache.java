@@ -0,0 +1,172 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.UnaryOperator;
+
+/**
+ * Remembers the results of manipulations, so that running the same
+ * manipulation on the same picture again costs nothing.
+ *
+ * A result is filed under the content hash and size of the picture it was
+ * computed from (see PixelPicture.getContentHash) and a key that names the
+ * manipulation and its parameters, such as "Blur 3". Pictures with the same
+ * pixels share their results however they were made, so the picture that an
+ * undo brings back finds everything computed from it before.
+ *
+ * The results are held within a memory budget, counting 4 bytes per pixel.
+ * When they grow past it, the least recently used ones are forgotten; a
+ * result bigger than the whole budget is never kept.
+ *
+ * The cache can be used from any thread. Manipulations run outside its lock,
+ * so two threads asking for the same missing result both compute it.
+ */
+public class ResultCache {
+
+    // What a result is filed under
+    private static final class Key {
+        final long hash;
+        final int width;
+        final int height;
+        final String name;
+
+        Key(PixelPicture pic, String name) {
+            this.hash = pic.getContentHash();
+            this.width = pic.getWidth();
+            this.height = pic.getHeight();
+            this.name = name;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key k = (Key) o;
+            return hash == k.hash && width == k.width && height == k.height
+                && name.equals(k.name);
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(hash) * 31 + name.hashCode();
+        }
+    }
+
+    private final long budget;
+
+    // least recently used first
+    private final LinkedHashMap<Key, PixelPicture> results =
+        new LinkedHashMap<Key, PixelPicture>(16, 0.75f, true);
+    private long bytesInMemory;
+    private long hits;
+    private long misses;
+
+    /**
+     * Creates an empty cache.
+     *
+     * @param budget the number of bytes of pixels to keep
+     */
+    public ResultCache(long budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * The result of a manipulation of a picture, from the cache if it is
+     * there, or else computed and remembered.
+     *
+     * @param pic the picture to manipulate
+     * @param key the name of the manipulation and all of its parameters;
+     *            the same key must always mean the same manipulation
+     * @param op  the manipulation
+     */
+    public PixelPicture apply(PixelPicture pic, String key, UnaryOperator<PixelPicture> op) {
+        Key k = new Key(pic, key);
+        PixelPicture result;
+        synchronized (this) {
+            result = results.get(k);
+            if (result != null) {
+                hits++;
+                return result;
+            }
+            misses++;
+        }
+        result = op.apply(pic);
+        put(k, result);
+        return result;
+    }
+
+    /**
+     * The remembered result of a manipulation of a picture, or null.
+     */
+    public PixelPicture get(PixelPicture pic, String key) {
+        Key k = new Key(pic, key);
+        synchronized (this) {
+            return results.get(k);
+        }
+    }
+
+    /**
+     * Remembers the result of a manipulation of a picture.
+     */
+    public void put(PixelPicture pic, String key, PixelPicture result) {
+        put(new Key(pic, key), result);
+    }
+
+    private synchronized void put(Key k, PixelPicture result) {
+        long bytes = bytes(result);
+        if (bytes > budget) {
+            return;
+        }
+        PixelPicture old = results.put(k, result);
+        if (old != null) {
+            bytesInMemory -= bytes(old);
+        }
+        bytesInMemory += bytes;
+
+        Iterator<Map.Entry<Key, PixelPicture>> oldest = results.entrySet().iterator();
+        while (bytesInMemory > budget) {
+            bytesInMemory -= bytes(oldest.next().getValue());
+            oldest.remove();
+        }
+    }
+
+    private static long bytes(PixelPicture p) {
+        return 4L * p.getWidth() * p.getHeight();
+    }
+
+    /**
+     * The number of results remembered.
+     */
+    public synchronized int size() {
+        return results.size();
+    }
+
+    /**
+     * The number of bytes of pixels of the results remembered.
+     */
+    public synchronized long memoryUsed() {
+        return bytesInMemory;
+    }
+
+    /**
+     * The number of calls to apply that found their result in the cache.
+     */
+    public synchronized long hits() {
+        return hits;
+    }
+
+    /**
+     * The number of calls to apply that had to compute their result.
+     */
+    public synchronized long misses() {
+        return misses;
+    }
+
+    /**
+     * Forgets every result.
+     */
+    public synchronized void clear() {
+        results.clear();
+        bytesInMemory = 0;
+    }
+}
@@ -48,19 +48,7 @@ public class SimpleManipulations {
      * @return The rotated picture.
      */
     public static PixelPicture rotateCW(PixelPicture pic) {
-        int w = pic.getWidth();
-        int h = pic.getHeight();
-
-        Pixel[][] src = pic.getBitmap();
-        Pixel[][] tgt = new Pixel[h][w]; // swap coordinates
-
-        for (int x = 0; x < w; x++) {
-            for (int y = 0; y < h; y++) {
-                tgt[h - y - 1][x] = src[x][y]; // swap coordinates
-            }
-        }
-
-        return new PixelPicture(tgt);
+        return PictureView.of(pic).rotateCW().toPicture();
     }
 
     /**
@@ -86,55 +74,61 @@ public class SimpleManipulations {
      * @return The rotated picture.
      */
     public static PixelPicture rotateCCW(PixelPicture pic) {
-    	int w = pic.getWidth();
-    	int h = pic.getHeight();
-  	
-    	Pixel[][] src = pic.getBitmap();
-    	Pixel[][] tgt = new Pixel[h][w];
-    	
-    	for (int x = 0; x < h; x++) {
-    		for(int y = 0; y < w; y++) {
-    			tgt[x][y] = src[w-1-y][x];
-    		}
-    	}
-    	
-        return new PixelPicture(tgt);
+        return PictureView.of(pic).rotateCCW().toPicture();
     }
 
-    
+    /**
+     * Mirror a picture left to right, as if seen in a mirror standing beside
+     * it: pixel (x, y) moves to (w - 1 - x, y).
+     *
+     * @param pic The original picture to mirror.
+     * @return The mirrored picture.
+     */
+    public static PixelPicture mirrorHorizontal(PixelPicture pic) {
+        return PictureView.of(pic).mirrorHorizontal().toPicture();
+    }
+
+    /**
+     * Mirror a picture top to bottom, as if seen in a mirror lying under
+     * it: pixel (x, y) moves to (x, h - 1 - y).
+     *
+     * @param pic The original picture to mirror.
+     * @return The mirrored picture.
+     */
+    public static PixelPicture mirrorVertical(PixelPicture pic) {
+        return PictureView.of(pic).mirrorVertical().toPicture();
+    }
+
+    /**
+     * Crop a picture to a rectangle.
+     *
+     * @param pic    the original picture
+     * @param x      the left column of the rectangle
+     * @param y      the top row of the rectangle
+     * @param width  the width of the rectangle
+     * @param height the height of the rectangle
+     * @return the part of the picture inside the rectangle
+     * @throws IndexOutOfBoundsException if the rectangle is empty or not
+     *         inside the picture
+     */
+    public static PixelPicture crop(PixelPicture pic, int x, int y, int width, int height) {
+        return PictureView.of(pic).crop(x, y, width, height).toPicture();
+    }
 
     /**
      * Create a new image by adding a border to a specified image.
      *
+     * Like the rotations, mirrors and crop, this copies nothing: the result
+     * is a PictureView of the original, drawn when its pixels are needed.
+     *
      * @param pic the original picture
      * @param borderWidth  number of pixels in the border
      * @param borderColor  color of the border.
-     * @return a copy of the input picture with a border
+     * @return the input picture surrounded by the border
      */
     public static PixelPicture border(
             PixelPicture pic, int borderWidth, Pixel borderColor) {
-    	
-    	int w = pic.getWidth() + (2 * borderWidth);
-    	int h = pic.getHeight() + (2 * borderWidth);
-    	
-    	Pixel[][] src = pic.getBitmap();
-    	Pixel[][] tgt = new Pixel[w][h];
-    	
-    	
-    	for (int x = 0; x < w; x++) {
-    		for (int y = 0; y < h; y++) {
-    			tgt[x][y] = borderColor; 
-    		}
-    	}
-    	
-    	for (int x = 0; x < pic.getWidth(); x++) {
-    		for (int y = 0; y < pic.getHeight(); y++) {
-    			tgt[x + borderWidth][y + borderWidth] = src[x][y];
-    		}
-    	}
-    	
-    	
-        return new PixelPicture(tgt);
+        return PictureView.of(pic).border(borderWidth, borderColor).toPicture();
     }
 
     
@@ -160,21 +154,7 @@ public class SimpleManipulations {
      * becomes (122, 122, 122).
      */
     public static PixelPicture grayScaleLuminosity(PixelPicture pic) {
-        int w = pic.getWidth();
-        int h = pic.getHeight();
-
-        Pixel[][] bmp = pic.getBitmap();
-        for (int x = 0; x < w; x++) {
-            for (int y = 0; y < h; y++) {
-                Pixel p = bmp[x][y];
-                int r = p.getRed();
-                int g = p.getGreen();
-                int b = p.getBlue();
-                int avg = (int) Math.round((0.299*r + 0.587*g + 0.114*b)/3.0);
-                bmp[x][y] = new Pixel(avg, avg, avg);
-            }
-        }
-        return new PixelPicture(bmp);
+        return PointOps.grayScaleLuminosity().applyTo(pic);
     }
 
     /**
@@ -187,21 +167,7 @@ public class SimpleManipulations {
      * @param pic the picture to be inverted
      */
     public static PixelPicture invertColors(PixelPicture pic) {
-    	int w = pic.getWidth();
-    	int h = pic.getHeight();
-    	
-    	Pixel[][] bmp = pic.getBitmap();
-    	for (int x = 0; x < w; x++) {
-    		for (int y = 0; y < h; y++) {
-    			Pixel p = bmp[x][y];
-    			int r = Math.abs(p.getRed() - 255);
-    			int g = Math.abs(p.getGreen() - 255);
-    			int b = Math.abs(p.getBlue() - 255);
-    			bmp[x][y] = new Pixel(r, g, b);
-    		}
-    	}
-    	
-    	return new PixelPicture(bmp);
+        return PointOps.invertColors().applyTo(pic);
     }
 
     /**
@@ -222,22 +188,7 @@ public class SimpleManipulations {
      */
     
     public static PixelPicture grayScaleAverage(PixelPicture pic) {
-    	int w = pic.getWidth();
-    	int h = pic.getHeight();
-    	
-    	Pixel[][] bmp = pic.getBitmap();
-    	for (int x = 0; x < w; x++) {
-    		for (int y = 0; y < h; y++) {
-    			Pixel p = bmp[x][y];
-    			int r = p.getRed();
-    			int g = p.getGreen();
-    			int b =p.getBlue();
-    			int avg = (int) Math.round((r + g + b) / 3.0);
-    			bmp[x][y] = new Pixel(avg,avg,avg);
-    		}
-    	}
-    	
-    	return new PixelPicture(bmp);
+        return PointOps.grayScaleAverage().applyTo(pic);
     }
 
     /**
@@ -256,23 +207,7 @@ public class SimpleManipulations {
      */
     public static PixelPicture scaleColors(
             PixelPicture pic, double rfactor, double gfactor, double bfactor) {
-      
-    	int w = pic.getWidth();
-    	int h = pic.getHeight();
-    	
-    	Pixel[][] bmp = pic.getBitmap();
-    	for (int x = 0; x < w; x++) {
-    		for (int y = 0; y < h; y++) {
-    			Pixel p = bmp[x][y];
-    			int r = (int) Math.round(p.getRed() * rfactor);
-    			int g = (int) Math.round(p.getGreen() * gfactor);
-    			int b = (int) Math.round(p.getBlue() * bfactor);
-    			bmp[x][y] = new Pixel(r, g, b);
-    		}
-    	}
-    	
-    	return new PixelPicture(bmp);
-    	
+        return PointOps.scaleColors(rfactor, gfactor, bfactor).applyTo(pic);
     }
 
     /**
@@ -304,32 +239,18 @@ public class SimpleManipulations {
      */
     public static PixelPicture alphaBlend(
             double alpha, PixelPicture pic, PixelPicture f) {
-        
-    	int w = pic.getWidth(); 
-    	int h = pic.getHeight(); 
-    	
-    	if (w != f.getWidth() || h != f.getHeight()) {
-    		return pic;
-    	} else {
-    		
-    		Pixel[][] bmp = pic.getBitmap();
-    		Pixel[][] fb = f.getBitmap();
-        	for (int x = 0; x < w; x++) {
-        		for (int y = 0; y < h; y++) {
-        			Pixel p = bmp[x][y];
-        			Pixel fp = fb[x][y];
-        			int r = weightedAverage(alpha, p.getRed(), fp.getRed());
-        			int g = weightedAverage(alpha, p.getGreen(), fp.getGreen());
-        			int b = weightedAverage(alpha, p.getBlue(), fp.getBlue());		
-        			bmp[x][y] = new Pixel(r, g, b);
-        		}
-        	}
-        	
-        	return new PixelPicture(bmp);
-    		
-    	}
-    
-    	
+        int w = pic.getWidth();
+        int h = pic.getHeight();
+
+        if (w != f.getWidth() || h != f.getHeight()) {
+            return pic;
+        }
+
+        int[] bmp = pic.getPixels();
+        int[] fb = f.getPixels();
+        PointOps.blend(alpha, bmp, fb);
+
+        return PixelPicture.wrap(w, h, bmp);
     }
 
     /*
@@ -373,33 +294,9 @@ public class SimpleManipulations {
      *    should just return the original input.
      */
     public static PixelPicture vignette(PixelPicture pic) {
-        int w = pic.getWidth();
-        int h = pic.getHeight();
-        double cx = (w - 1) / 2.0;
-        double cy = (h - 1) / 2.0;   // cx, cy is center pixel in the image
-
-        Pixel[][] bmp = pic.getBitmap();
-        for (int x=0; x < w; x++) {
-            for (int y=0; y < h; y++) {
-                double dx = (double) (x - cx);
-                double dy = (double) (y - cy);
-
-                double r  = Math.sqrt(cx * cx + cy * cy);
-                // check for division by zero
-                if (r == 0) {
-                    return pic;
-                }
-
-                double d  = Math.sqrt((dx * dx) + (dy * dy)) / r;
-                double factor = 1.0 - d * d;
-
-                bmp[x][y] = new Pixel(
-                        (int) Math.round(bmp[x][y].getRed() * factor),
-                        (int) Math.round(bmp[x][y].getGreen() * factor),
-                        (int) Math.round(bmp[x][y].getBlue() * factor));
-
-            }
+        if (pic.getWidth() == 1 && pic.getHeight() == 1) {
+            return pic;
         }
-        return new PixelPicture(bmp);
+        return PointOps.vignette().applyTo(pic);
     }
 }
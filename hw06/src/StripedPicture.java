@@ -0,0 +1,225 @@
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.function.UnaryOperator;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * A picture too large to hold in memory, stored on disk in the RawImage
+ * format and processed one horizontal strip at a time.
+ *
+ * Only a strip of rows (plus, for neighborhood filters, a halo of extra rows
+ * above and below it) is ever in memory, and each processed strip is written
+ * straight to the output file. Peak memory is therefore set by the memory
+ * budget, not by the size of the picture.
+ *
+ * Any manipulation that keeps the size of the picture and computes each
+ * pixel from pixels at most halo rows away can be applied: point-wise
+ * manipulations (and Pipelines of PointOps) with a halo of 0, blur with a
+ * halo of its radius. Manipulations that need the whole picture, like
+ * adjustContrast, reducePalette or the rotations, cannot be streamed, and
+ * neither can vignette, which depends on where a pixel is in the picture.
+ */
+public class StripedPicture {
+
+    /**
+     * The default memory budget for one strip: 64MB.
+     */
+    public static final long DEFAULT_BUDGET = 64L << 20;
+
+    // A strip is held about this many times over while being processed:
+    // the input strip, the filter's copy and its result
+    private static final int COPIES = 3;
+
+    private final File file;
+    private final int width;
+    private final int height;
+
+    /**
+     * Opens a picture stored in the RawImage format.
+     *
+     * @param rawFile the file to open
+     */
+    public StripedPicture(String rawFile) {
+        file = new File(rawFile);
+        try {
+            int[] size = RawImage.readSize(file);
+            width = size[0];
+            height = size[1];
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Decodes an image file of any format ImageIO can read into a RawImage
+     * file, one strip at a time, and opens the result.
+     *
+     * Each strip is read as a source region, so memory is bounded by the
+     * budget. Formats that cannot seek (like PNG) are decoded from the start
+     * for each strip, so this trades time for memory; it only has to be done
+     * once per input.
+     *
+     * @param imageFile the image to decode
+     * @param rawFile   the RawImage file to create
+     * @param budget    the number of bytes one strip may use
+     * @return the decoded picture
+     */
+    public static StripedPicture decode(String imageFile, String rawFile, long budget) {
+        File out = new File(rawFile);
+        try (ImageInputStream in = ImageIO.createImageInputStream(new File(imageFile))) {
+            if (in == null) {
+                throw new IOException("cannot open " + imageFile);
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                throw new IOException("no reader for " + imageFile);
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in);
+                int w = reader.getWidth(0);
+                int h = reader.getHeight(0);
+                RawImage.create(out, w, h);
+
+                int rows = stripRows(w, h, 0, budget);
+                for (int y = 0; y < h; y += rows) {
+                    int n = Math.min(rows, h - y);
+                    ImageReadParam param = reader.getDefaultReadParam();
+                    param.setSourceRegion(new Rectangle(0, y, w, n));
+                    BufferedImage strip = reader.read(0, param);
+                    int[] rgb = strip.getRGB(0, 0, w, n, null, 0, w);
+                    for (int i = 0; i < rgb.length; i++) {
+                        rgb[i] &= 0xffffff;
+                    }
+                    RawImage.writeRows(out, w, y, n, rgb, 0);
+                }
+            } finally {
+                reader.dispose();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return new StripedPicture(rawFile);
+    }
+
+    /**
+     * Writes a picture that is already in memory to a RawImage file and
+     * opens it as a StripedPicture.
+     */
+    public static StripedPicture of(PixelPicture pic, String rawFile) {
+        try {
+            RawImage.write(new File(rawFile), pic.getWidth(), pic.getHeight(), pic.getPixels());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return new StripedPicture(rawFile);
+    }
+
+    /**
+     * Get the width of the image.
+     */
+    public int getWidth() { return width; }
+
+    /**
+     * Get the height of the image.
+     */
+    public int getHeight() { return height; }
+
+    /**
+     * Get the RawImage file holding the picture.
+     */
+    public File getFile() { return file; }
+
+    /**
+     * Reads rows [y, y + rows) of the picture into memory.
+     */
+    public PixelPicture getStrip(int y, int rows) {
+        if (y < 0 || rows <= 0 || y + rows > height) {
+            throw new IndexOutOfBoundsException("rows " + y + " to " + (y + rows)
+                                                + " of a picture with height " + height);
+        }
+        try {
+            return PixelPicture.wrap(width, rows, RawImage.readRows(file, width, y, rows));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Reads the whole picture into memory. Only use this for pictures that
+     * fit in the heap.
+     */
+    public PixelPicture toPixelPicture() {
+        return getStrip(0, height);
+    }
+
+    /**
+     * Applies a manipulation strip by strip with the default budget.
+     *
+     * @see #apply(UnaryOperator, int, String, long)
+     */
+    public StripedPicture apply(UnaryOperator<PixelPicture> op, int halo, String outFile) {
+        return apply(op, halo, outFile, DEFAULT_BUDGET);
+    }
+
+    /**
+     * Applies a manipulation strip by strip, writing the result to a new
+     * RawImage file.
+     *
+     * Each strip is read together with up to halo rows above and below it
+     * (fewer at the top and bottom of the picture), the manipulation is run
+     * on that, and only the strip's own rows of the result are kept. As long
+     * as the manipulation only looks at pixels at most halo rows away, the
+     * result is identical to running it on the whole picture.
+     *
+     * @param op      the manipulation, which must not change the picture's size
+     * @param halo    how many rows away from a pixel op may look
+     * @param outFile the RawImage file to write
+     * @param budget  the number of bytes one strip may use
+     * @return the result
+     */
+    public StripedPicture apply(UnaryOperator<PixelPicture> op, int halo,
+                                String outFile, long budget) {
+        File out = new File(outFile);
+        if (out.getAbsoluteFile().equals(file.getAbsoluteFile())) {
+            throw new IllegalArgumentException("cannot write " + outFile + " while reading it");
+        }
+        try {
+            RawImage.create(out, width, height);
+            int rows = stripRows(width, height, halo, budget);
+            for (int y = 0; y < height; y += rows) {
+                int n = Math.min(rows, height - y);
+                int top = Math.max(0, y - halo);
+                int bottom = Math.min(height, y + n + halo);
+
+                PixelPicture result = op.apply(getStrip(top, bottom - top));
+                if (result.getWidth() != width || result.getHeight() != bottom - top) {
+                    throw new IllegalArgumentException("manipulation changed the size of a strip from "
+                            + width + "x" + (bottom - top) + " to "
+                            + result.getWidth() + "x" + result.getHeight());
+                }
+                RawImage.writeRows(out, width, y, n, result.getPixels(), (y - top) * width);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return new StripedPicture(outFile);
+    }
+
+    /**
+     * The number of rows in a strip so that the strip and its halo, held
+     * COPIES times over, fit in the budget. Always at least one row.
+     */
+    static int stripRows(int width, int height, int halo, long budget) {
+        long rowBytes = 4L * width * COPIES;
+        long rows = budget / rowBytes - 2L * halo;
+        return (int) Math.max(1, Math.min(height, rows));
+    }
+}
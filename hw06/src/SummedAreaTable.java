@@ -0,0 +1,216 @@
+/**
+ * Summed-area tables (integral images) of a picture, which give the sum,
+ * mean and variance of each color component over any rectangle in constant
+ * time.
+ *
+ * For each component c the table holds, at (x, y), the sum of c over every
+ * pixel above and to the left of (x, y). The sum over a rectangle is then
+ * four lookups: the table at its bottom-right corner, minus the parts above
+ * and to the left, plus the top-left part that was subtracted twice.
+ *
+ * The sums are stored in ints and allowed to wrap around. Differences of
+ * wrapped sums are still exact modulo 2^32, so the sum over any rectangle
+ * whose true sum fits in 32 unsigned bits (up to 2^24 pixels) is exact.
+ * Larger rectangles are summed in bands of at most that many pixels. The
+ * tables of squares, needed only for the variance, are kept in longs and
+ * built the first time they are used.
+ *
+ * Get the table of a picture with PixelPicture.getSummedAreaTable, which
+ * builds it once and keeps it with the picture.
+ */
+public class SummedAreaTable {
+
+    /**
+     * The index of the red component.
+     */
+    public static final int RED = 0;
+
+    /**
+     * The index of the green component.
+     */
+    public static final int GREEN = 1;
+
+    /**
+     * The index of the blue component.
+     */
+    public static final int BLUE = 2;
+
+    // The most pixels a rectangle may have for 255 * pixels to fit in 32 bits
+    private static final int MAX_AREA = 1 << 24;
+
+    private final int width;
+    private final int height;
+    private final int stride;     // width + 1, the length of a table row
+    private final int[] src;      // the packed pixels, for the squares
+    private final int[][] sums;   // sums[c], (width + 1) * (height + 1)
+    private long[][] squares;     // squares[c], built on demand
+
+    /**
+     * Builds the tables of sums of a picture stored as packed pixels.
+     */
+    SummedAreaTable(int width, int height, int[] src) {
+        this.width = width;
+        this.height = height;
+        this.stride = width + 1;
+        this.src = src;
+        if ((long) stride * (height + 1) > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("picture too large for a summed-area table: "
+                                               + width + "x" + height);
+        }
+
+        int[] r = new int[stride * (height + 1)];
+        int[] g = new int[r.length];
+        int[] b = new int[r.length];
+        sums = new int[][] { r, g, b };
+
+        // first a prefix sum along each row, then down each column
+        TileScheduler.forEachRow(width, height, 1, (start, end) -> {
+            for (int y = start; y < end; y++) {
+                int in = y * width;
+                int out = (y + 1) * stride + 1;
+                int sr = 0;
+                int sg = 0;
+                int sb = 0;
+                for (int x = 0; x < width; x++) {
+                    int c = src[in + x];
+                    sr += (c >> 16) & 0xff;
+                    sg += (c >> 8) & 0xff;
+                    sb += c & 0xff;
+                    r[out + x] = sr;
+                    g[out + x] = sg;
+                    b[out + x] = sb;
+                }
+            }
+        });
+        TileScheduler.run(stride, TileScheduler.TILE_PIXELS / Math.max(1, height), (start, end) -> {
+            for (int y = 2; y <= height; y++) {
+                int row = y * stride;
+                int above = row - stride;
+                for (int x = start; x < end; x++) {
+                    r[row + x] += r[above + x];
+                    g[row + x] += g[above + x];
+                    b[row + x] += b[above + x];
+                }
+            }
+        });
+    }
+
+    /**
+     * Get the width of the picture.
+     */
+    public int getWidth() { return width; }
+
+    /**
+     * Get the height of the picture.
+     */
+    public int getHeight() { return height; }
+
+    /**
+     * The sum of one component over the rectangle from (x0, y0) inclusive
+     * to (x1, y1) exclusive.
+     *
+     * @param c the component: RED, GREEN or BLUE
+     */
+    public long sum(int c, int x0, int y0, int x1, int y1) {
+        check(x0, y0, x1, y1);
+        int[] t = sums[c];
+        int w = x1 - x0;
+        if ((long) w * (y1 - y0) <= MAX_AREA) {
+            return box(t, x0, y0, x1, y1);
+        }
+        // too many pixels for one 32 bit difference: go band by band
+        int rows = Math.max(1, MAX_AREA / w);
+        long total = 0;
+        for (int y = y0; y < y1; y += rows) {
+            total += box(t, x0, y, x1, Math.min(y1, y + rows));
+        }
+        return total;
+    }
+
+    // The sum over a rectangle of at most MAX_AREA pixels
+    private long box(int[] t, int x0, int y0, int x1, int y1) {
+        int top = y0 * stride;
+        int bottom = y1 * stride;
+        return (t[bottom + x1] - t[bottom + x0] - t[top + x1] + t[top + x0]) & 0xffffffffL;
+    }
+
+    /**
+     * The sum of all three components over a rectangle.
+     *
+     * @see #sum(int, int, int, int, int)
+     */
+    public long sum(int x0, int y0, int x1, int y1) {
+        return sum(RED, x0, y0, x1, y1) + sum(GREEN, x0, y0, x1, y1)
+               + sum(BLUE, x0, y0, x1, y1);
+    }
+
+    /**
+     * The mean of one component over a rectangle.
+     *
+     * @see #sum(int, int, int, int, int)
+     */
+    public double mean(int c, int x0, int y0, int x1, int y1) {
+        return sum(c, x0, y0, x1, y1) / ((double) (x1 - x0) * (y1 - y0));
+    }
+
+    /**
+     * The (population) variance of one component over a rectangle. The
+     * first call builds the tables of squares, which take twice the memory
+     * of the tables of sums.
+     *
+     * @see #sum(int, int, int, int, int)
+     */
+    public double variance(int c, int x0, int y0, int x1, int y1) {
+        long s = sum(c, x0, y0, x1, y1);
+        long[] t = squares()[c];
+        int top = y0 * stride;
+        int bottom = y1 * stride;
+        long sq = t[bottom + x1] - t[bottom + x0] - t[top + x1] + t[top + x0];
+        double n = (double) (x1 - x0) * (y1 - y0);
+        return Math.max(0, (sq - s * (double) s / n) / n);
+    }
+
+    private synchronized long[][] squares() {
+        if (squares == null) {
+            long[][] t = new long[3][stride * (height + 1)];
+            TileScheduler.forEachRow(width, height, 1, (start, end) -> {
+                for (int y = start; y < end; y++) {
+                    int in = y * width;
+                    int out = (y + 1) * stride + 1;
+                    long sr = 0;
+                    long sg = 0;
+                    long sb = 0;
+                    for (int x = 0; x < width; x++) {
+                        int p = src[in + x];
+                        int r = (p >> 16) & 0xff;
+                        int g = (p >> 8) & 0xff;
+                        int b = p & 0xff;
+                        sr += r * r;
+                        sg += g * g;
+                        sb += b * b;
+                        t[RED][out + x] = sr;
+                        t[GREEN][out + x] = sg;
+                        t[BLUE][out + x] = sb;
+                    }
+                }
+            });
+            for (long[] tc : t) {
+                for (int y = 2; y <= height; y++) {
+                    int row = y * stride;
+                    for (int x = 1; x <= width; x++) {
+                        tc[row + x] += tc[row - stride + x];
+                    }
+                }
+            }
+            squares = t;
+        }
+        return squares;
+    }
+
+    private void check(int x0, int y0, int x1, int y1) {
+        if (x0 < 0 || y0 < 0 || x1 > width || y1 > height || x0 >= x1 || y0 >= y1) {
+            throw new IndexOutOfBoundsException("rectangle (" + x0 + ", " + y0 + ") to ("
+                    + x1 + ", " + y1 + ") in a " + width + "x" + height + " picture");
+        }
+    }
+}
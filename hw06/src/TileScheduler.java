@@ -0,0 +1,257 @@
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Runs image filters over tiles of a picture in parallel.
+ *
+ * Pictures are stored as packed, row-major int arrays (see PixelPicture), so
+ * a tile is simply a contiguous range of indices: a range of pixels for
+ * point-wise filters, or a band of whole rows for neighborhood filters such
+ * as blur. Ranges are split recursively on a ForkJoinPool until they are no
+ * bigger than a tile, and every tile writes only its own part of the output.
+ * Because each output pixel is computed by exactly the same code no matter
+ * which thread runs it, the result is bit-identical to running sequentially.
+ *
+ * The number of threads is set with setParallelism. A parallelism of 1 runs
+ * every filter on the calling thread.
+ *
+ * Work started inside monitored() reports its progress to a Monitor after
+ * every tile, and stops with a CancellationException at the next tile once
+ * the Monitor says it has been cancelled.
+ */
+public class TileScheduler {
+
+    /**
+     * The number of pixels in a tile. 64K packed ints is 256KB, which keeps
+     * a tile's input and output in a typical L2 cache.
+     */
+    public static final int TILE_PIXELS = 1 << 16;
+
+    /**
+     * A piece of work over the index range [start, end).
+     */
+    public interface Kernel {
+        void apply(int start, int end);
+    }
+
+    /**
+     * A piece of work over the index range [start, end) that produces a
+     * partial sum. Partial sums of tiles are added together.
+     */
+    public interface SumKernel {
+        long apply(int start, int end);
+    }
+
+    /**
+     * Watches the filters run by one thread: receives progress and decides
+     * whether they should stop.
+     */
+    public interface Monitor {
+        /**
+         * Whether the work should stop. Checked before every tile.
+         */
+        boolean isCancelled();
+
+        /**
+         * Called after every tile with the number of indices done so far
+         * in the current pass over a picture, out of total. A filter may
+         * make several passes.
+         */
+        void progress(int done, int total);
+    }
+
+    private static final ThreadLocal<Monitor> MONITOR = new ThreadLocal<Monitor>();
+
+    private static int parallelism = Runtime.getRuntime().availableProcessors();
+    private static ForkJoinPool pool;
+
+    /**
+     * Gets the number of threads filters run on.
+     */
+    public static synchronized int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Sets the number of threads filters run on. Filters already running
+     * finish on the old pool.
+     *
+     * @param n the number of threads, at least 1
+     */
+    public static synchronized void setParallelism(int n) {
+        if (n < 1) {
+            throw new IllegalArgumentException("parallelism must be at least 1, got " + n);
+        }
+        if (n != parallelism) {
+            // The old pool is not shut down: a filter may have taken it from
+            // pool() and not submitted its work yet, which would then be
+            // rejected. Its threads are daemons and end once they have been
+            // idle for a while.
+            pool = null;
+        }
+        parallelism = n;
+    }
+
+    // The pool to run on, or null if filters should run sequentially.
+    private static synchronized ForkJoinPool pool() {
+        if (parallelism == 1) {
+            return null;
+        }
+        if (pool == null) {
+            pool = new ForkJoinPool(parallelism);
+        }
+        return pool;
+    }
+
+    /**
+     * Runs work on the calling thread with every filter it starts reporting
+     * to the given monitor.
+     *
+     * @throws CancellationException if the monitor cancels the work
+     */
+    public static <T> T monitored(Monitor m, Supplier<T> work) {
+        Monitor old = MONITOR.get();
+        MONITOR.set(m);
+        try {
+            return work.get();
+        } finally {
+            MONITOR.set(old);
+        }
+    }
+
+    /**
+     * Runs k over [0, n), in tiles of at most grain indices.
+     */
+    public static void run(int n, int grain, Kernel k) {
+        int g = Math.max(1, grain);
+        Monitor m = MONITOR.get();
+        if (m != null) {
+            AtomicInteger done = new AtomicInteger();
+            Kernel inner = k;
+            k = (start, end) -> {
+                checkCancelled(m);
+                inner.apply(start, end);
+                m.progress(done.addAndGet(end - start), n);
+            };
+        }
+        ForkJoinPool p = pool();
+        if (p == null || n <= g) {
+            for (int start = 0; start < n; start += g) {
+                k.apply(start, Math.min(n, start + g));
+            }
+        } else {
+            p.invoke(new Split(0, n, g, k));
+        }
+    }
+
+    /**
+     * Runs k over [0, n), in tiles of at most grain indices, and returns the
+     * sum of the results for every tile.
+     */
+    public static long sum(int n, int grain, SumKernel k) {
+        int g = Math.max(1, grain);
+        Monitor m = MONITOR.get();
+        if (m != null) {
+            AtomicInteger done = new AtomicInteger();
+            SumKernel inner = k;
+            k = (start, end) -> {
+                checkCancelled(m);
+                long sum = inner.apply(start, end);
+                m.progress(done.addAndGet(end - start), n);
+                return sum;
+            };
+        }
+        ForkJoinPool p = pool();
+        if (p == null || n <= g) {
+            long sum = 0;
+            for (int start = 0; start < n; start += g) {
+                sum += k.apply(start, Math.min(n, start + g));
+            }
+            return sum;
+        }
+        return p.invoke(new SplitSum(0, n, g, k));
+    }
+
+    private static void checkCancelled(Monitor m) {
+        if (m.isCancelled()) {
+            throw new CancellationException();
+        }
+    }
+
+    /**
+     * Runs a point-wise kernel over every pixel index of a picture with n
+     * pixels.
+     */
+    public static void forEachPixel(int n, Kernel k) {
+        run(n, TILE_PIXELS, k);
+    }
+
+    /**
+     * Runs a kernel over bands of rows of a picture of the given width and
+     * height. The kernel receives a range of row numbers. Bands are at
+     * least minRows rows tall, which lets neighborhood filters amortize the
+     * rows they read above and below the band.
+     */
+    public static void forEachRow(int width, int height, int minRows, Kernel k) {
+        run(height, Math.max(minRows, TILE_PIXELS / Math.max(1, width)), k);
+    }
+
+    private static class Split extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int start;
+        private final int end;
+        private final int grain;
+        private final Kernel k;
+
+        Split(int start, int end, int grain, Kernel k) {
+            this.start = start;
+            this.end = end;
+            this.grain = grain;
+            this.k = k;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start <= grain) {
+                k.apply(start, end);
+            } else {
+                int mid = (start + end) >>> 1;
+                invokeAll(new Split(start, mid, grain, k),
+                          new Split(mid, end, grain, k));
+            }
+        }
+    }
+
+    private static class SplitSum extends RecursiveTask<Long> {
+        private static final long serialVersionUID = 1L;
+
+        private final int start;
+        private final int end;
+        private final int grain;
+        private final SumKernel k;
+
+        SplitSum(int start, int end, int grain, SumKernel k) {
+            this.start = start;
+            this.end = end;
+            this.grain = grain;
+            this.k = k;
+        }
+
+        @Override
+        protected Long compute() {
+            if (end - start <= grain) {
+                return k.apply(start, end);
+            }
+            int mid = (start + end) >>> 1;
+            SplitSum left = new SplitSum(start, mid, grain, k);
+            left.fork();
+            long right = new SplitSum(mid, end, grain, k).compute();
+            return left.join() + right;
+        }
+    }
+}
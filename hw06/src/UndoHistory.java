@@ -0,0 +1,489 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * The undo history of the GUI, stored as differences between pictures.
+ *
+ * Each time the picture changes, push records how to get the old picture
+ * back from the new one. When both have the same size, only the 64x64 tiles
+ * that actually changed are kept (a flood fill or a small edit costs a few
+ * tiles, not a whole picture). When the size changes, as with a rotation
+ * or a border, the whole old picture is kept.
+ *
+ * The history is held within a memory budget. When it grows past the
+ * budget, the oldest steps are either spilled to a temporary file (if
+ * spilling is enabled) or forgotten. The most recent step is always kept,
+ * so at least one undo is possible.
+ *
+ * Steps are spilled oldest first, so the file holds them in order with the
+ * newest at its end, and undoing a spilled step cuts it off the end. The
+ * file has a limit of its own: past it, the oldest spilled steps are
+ * forgotten, and the steps after them are moved to the start of the file
+ * once the space they leave is more than what is still in use.
+ *
+ * The pictures undo gives back keep their content hash (see
+ * PixelPicture.getContentHash) when it can be had without reading them:
+ * either the hash of the old picture was known when the change was pushed,
+ * or it is worked out from the hash of the current one and the changed
+ * tiles. So results cached for a picture (see ResultCache) are found again
+ * after an undo at no cost.
+ *
+ * Comparing two large pictures, and spilling, take a while. A GUI can do
+ * both in the background: work out the step with diff and make room for it
+ * with makeRoom, then push the finished step on the event thread. The
+ * history may be used from several threads.
+ */
+public class UndoHistory {
+
+    /**
+     * The width and height of the tiles that differences are recorded in.
+     */
+    public static final int TILE = 64;
+
+    /**
+     * The number of bytes the spill file may grow to, unless given.
+     */
+    public static final long DEFAULT_SPILL_LIMIT = 1L << 30;
+
+    /**
+     * One undo step: how to rebuild the previous picture from the next one.
+     */
+    public static final class Step {
+        int width;      // size of the previous picture
+        int height;
+        int[] tiles;    // x, y, w, h of each changed tile, or null for the whole picture
+        int[] pixels;   // the previous pixels of those tiles, or null if spilled
+        int length;     // number of ints in pixels
+        long offset;    // where pixels are in the spill file, if spilled
+        Long hash;      // content hash of the previous picture, if known
+
+        long bytes() {
+            return 4L * ((pixels == null ? 0 : pixels.length)
+                         + (tiles == null ? 0 : tiles.length));
+        }
+    }
+
+    private final long budget;
+    private final boolean spill;
+    private final long spillLimit;
+
+    // newest first
+    private final Deque<Step> steps = new ArrayDeque<Step>();
+    private long bytesInMemory;
+
+    private File spillPath;
+    private RandomAccessFile spillFile;
+    // where the oldest spilled step that has not been forgotten starts
+    private long spillStart;
+
+    /**
+     * Creates an empty history.
+     *
+     * @param budget the number of bytes of pixels to keep in memory
+     * @param spill  whether to move old steps to a temporary file instead
+     *               of forgetting them when over budget
+     */
+    public UndoHistory(long budget, boolean spill) {
+        this(budget, spill, DEFAULT_SPILL_LIMIT);
+    }
+
+    /**
+     * Creates an empty history.
+     *
+     * @param budget     the number of bytes of pixels to keep in memory
+     * @param spill      whether to move old steps to a temporary file
+     *                   instead of forgetting them when over budget
+     * @param spillLimit the number of bytes the temporary file may grow
+     *                   to before the oldest steps in it are forgotten
+     */
+    public UndoHistory(long budget, boolean spill, long spillLimit) {
+        this.budget = budget;
+        this.spill = spill;
+        this.spillLimit = spillLimit;
+    }
+
+    /**
+     * Records a change from one picture to another.
+     *
+     * @param before the picture before the change
+     * @param after  the picture after the change
+     */
+    public void push(PixelPicture before, PixelPicture after) {
+        push(diff(before, after));
+    }
+
+    /**
+     * Records a change worked out by diff.
+     */
+    public synchronized void push(Step s) {
+        steps.push(s);
+        bytesInMemory += s.bytes();
+        enforceBudget(0);
+    }
+
+    /**
+     * Works out the step that undoes a change from one picture to another,
+     * comparing the tiles in parallel. The history is not changed.
+     *
+     * @param before the picture before the change
+     * @param after  the picture after the change
+     */
+    public static Step diff(PixelPicture before, PixelPicture after) {
+        Step s = new Step();
+        s.width = before.getWidth();
+        s.height = before.getHeight();
+        s.hash = before.knownContentHash();
+        int[] old = pixelsOf(before);
+
+        if (after.getWidth() == s.width && after.getHeight() == s.height) {
+            diff(s, old, pixelsOf(after));
+        } else {
+            s.pixels = old;
+        }
+        s.length = s.pixels.length;
+        return s;
+    }
+
+    /**
+     * Spills or forgets old steps until a step can be pushed without going
+     * over budget. Every step already pushed stays undoable if the new one
+     * is never pushed after all, except those forgotten when spilling is
+     * off.
+     */
+    public synchronized void makeRoom(Step s) {
+        enforceBudget(s.bytes());
+    }
+
+    // The pixels of a picture, shared rather than copied when they can be:
+    // pictures never change, so the history may keep the array itself.
+    // Unlike getPixels, the top byte is not cleared, so compare only the
+    // low 24 bits.
+    private static int[] pixelsOf(PixelPicture p) {
+        int[] data = p.data();
+        return data.length == p.getWidth() * p.getHeight() ? data : p.getPixels();
+    }
+
+    // Fills in the tiles of old that differ from now. The tiles are compared
+    // in parallel rows of tiles, and then the changed ones are copied into
+    // an array of the right size, each to the place the tiles before it
+    // leave for it.
+    private static void diff(Step s, int[] old, int[] now) {
+        int w = s.width;
+        int h = s.height;
+        int across = (w + TILE - 1) / TILE;
+        int down = (h + TILE - 1) / TILE;
+        int grain = Math.max(1, TileScheduler.TILE_PIXELS / (TILE * w));
+        boolean[] changed = new boolean[across * down];
+        TileScheduler.run(down, grain, (start, end) -> {
+            for (int t = start * across; t < end * across; t++) {
+                int tx = t % across * TILE;
+                int ty = t / across * TILE;
+                changed[t] = !sameTile(old, now, w, tx, ty,
+                                       Math.min(TILE, w - tx), Math.min(TILE, h - ty));
+            }
+        });
+
+        // where each changed tile goes in pixels
+        int[] at = new int[changed.length];
+        int count = 0;
+        int length = 0;
+        for (int t = 0; t < changed.length; t++) {
+            if (changed[t]) {
+                at[t] = length;
+                length += Math.min(TILE, w - t % across * TILE)
+                          * Math.min(TILE, h - t / across * TILE);
+                count++;
+            }
+        }
+        if (length >= old.length) {
+            // everything changed; no point in keeping the tile layout
+            s.pixels = old;
+            return;
+        }
+
+        int[] tiles = new int[4 * count];
+        int[] pixels = new int[length];
+        int k = 0;
+        for (int t = 0; t < changed.length; t++) {
+            if (changed[t]) {
+                tiles[k++] = t % across * TILE;
+                tiles[k++] = t / across * TILE;
+                tiles[k++] = Math.min(TILE, w - t % across * TILE);
+                tiles[k++] = Math.min(TILE, h - t / across * TILE);
+            }
+        }
+        TileScheduler.run(down, grain, (start, end) -> {
+            for (int t = start * across; t < end * across; t++) {
+                if (changed[t]) {
+                    int tx = t % across * TILE;
+                    int ty = t / across * TILE;
+                    int tw = Math.min(TILE, w - tx);
+                    int th = Math.min(TILE, h - ty);
+                    for (int y = 0; y < th; y++) {
+                        System.arraycopy(old, (ty + y) * w + tx, pixels, at[t] + y * tw, tw);
+                    }
+                }
+            }
+        });
+        s.tiles = tiles;
+        s.pixels = pixels;
+    }
+
+    private static boolean sameTile(int[] a, int[] b, int w, int tx, int ty, int tw, int th) {
+        for (int y = ty; y < ty + th; y++) {
+            int off = y * w + tx;
+            for (int i = off; i < off + tw; i++) {
+                if (((a[i] ^ b[i]) & 0xffffff) != 0) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Undoes the most recent change.
+     *
+     * @param current the picture as it is now, i.e. the after picture of
+     *                the most recent push that has not been undone
+     * @return the picture before the most recent change
+     * @throws NoSuchElementException if there is nothing to undo
+     */
+    public synchronized PixelPicture undo(PixelPicture current) {
+        Step s = steps.pop();
+        int[] pixels = load(s);
+        bytesInMemory -= s.bytes();
+        if (s.pixels == null) {
+            // the newest spilled step is at the end of the file
+            truncateSpill(s.offset == spillStart ? 0 : s.offset);
+        }
+
+        if (s.tiles == null) {
+            PixelPicture p = PixelPicture.wrap(s.width, s.height, pixels);
+            if (s.hash != null) {
+                p.setContentHash(s.hash);
+            }
+            return p;
+        }
+
+        int w = s.width;
+        int h = s.height;
+        int[] bmp = current.getPixels();
+        // the hash of current, updated tile by tile as they are put back
+        Long hash = s.hash == null ? current.knownContentHash() : null;
+        long updated = hash == null ? 0 : hash;
+        int k = 0;
+        for (int t = 0; t < s.tiles.length; t += 4) {
+            int tx = s.tiles[t];
+            int ty = s.tiles[t + 1];
+            int tw = s.tiles[t + 2];
+            int th = s.tiles[t + 3];
+            if (hash != null) {
+                updated -= ContentHash.tile(bmp, w, h, tx, ty);
+            }
+            for (int y = ty; y < ty + th; y++) {
+                System.arraycopy(pixels, k, bmp, y * w + tx, tw);
+                k += tw;
+            }
+            if (hash != null) {
+                updated += ContentHash.tile(bmp, w, h, tx, ty);
+            }
+        }
+        PixelPicture p = PixelPicture.wrap(w, h, bmp);
+        if (s.hash != null) {
+            p.setContentHash(s.hash);
+        } else if (hash != null) {
+            p.setContentHash(updated);
+        }
+        return p;
+    }
+
+    /**
+     * Determines whether there is anything to undo.
+     */
+    public synchronized boolean isEmpty() {
+        return steps.isEmpty();
+    }
+
+    /**
+     * The number of changes that can be undone.
+     */
+    public synchronized int size() {
+        return steps.size();
+    }
+
+    /**
+     * The number of bytes of pixels currently held in memory.
+     */
+    public synchronized long memoryUsed() {
+        return bytesInMemory;
+    }
+
+    /**
+     * The number of bytes of the spill file, 0 if there is none.
+     */
+    public synchronized long diskUsed() {
+        try {
+            return spillFile == null ? 0 : spillFile.length();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Forgets every change, and deletes the spill file if there is one.
+     */
+    public synchronized void clear() {
+        steps.clear();
+        bytesInMemory = 0;
+        spillStart = 0;
+        if (spillFile != null) {
+            try {
+                spillFile.close();
+            } catch (IOException e) {
+                // nothing more we can do; the file is deleted on exit anyway
+            }
+            spillPath.delete();
+            spillFile = null;
+            spillPath = null;
+        }
+    }
+
+    // Spills or forgets the oldest steps until the history, plus extra
+    // bytes, fits the budget
+    private void enforceBudget(long extra) {
+        Iterator<Step> oldest = steps.descendingIterator();
+        while (bytesInMemory + extra > budget && oldest.hasNext()) {
+            Step s = oldest.next();
+            if (s == steps.peek()) {
+                break; // always keep the most recent step
+            }
+            if (spill) {
+                if (s.pixels != null) {
+                    bytesInMemory -= s.bytes();
+                    spillOut(s);
+                    bytesInMemory += s.bytes();
+                }
+            } else {
+                bytesInMemory -= s.bytes();
+                oldest.remove();
+            }
+        }
+        if (spillFile != null) {
+            trimSpill();
+        }
+    }
+
+    // Forgets the oldest spilled steps until the spill file fits its limit,
+    // and moves the others to the start of the file when the space in front
+    // of them is more than they take, or the file is still too big
+    private void trimSpill() {
+        try {
+            long end = spillFile.length();
+            while (end - spillStart > spillLimit && steps.size() > 1
+                   && steps.peekLast().pixels == null) {
+                bytesInMemory -= steps.removeLast().bytes();
+                Step next = steps.peekLast();
+                spillStart = next.pixels == null ? next.offset : end;
+            }
+            if (spillStart == end) {
+                truncateSpill(0);
+            } else if (spillStart > 0 && (spillStart >= end - spillStart || end > spillLimit)) {
+                moveSpill(end);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // Moves the spilled steps from [spillStart, end) to the start of the file
+    private void moveSpill(long end) throws IOException {
+        FileChannel ch = spillFile.getChannel();
+        ByteBuffer buf = ByteBuffer.allocate(1 << 20);
+        long from = spillStart;
+        long to = 0;
+        while (from < end) {
+            buf.clear();
+            buf.limit((int) Math.min(buf.capacity(), end - from));
+            int n = ch.read(buf, from);
+            if (n < 0) {
+                throw new IOException("undo spill file is truncated");
+            }
+            from += n;
+            buf.flip();
+            while (buf.hasRemaining()) {
+                to += ch.write(buf, to);
+            }
+        }
+        for (Step s : steps) {
+            if (s.pixels == null) {
+                s.offset -= spillStart;
+            }
+        }
+        long length = end - spillStart;
+        spillStart = 0;
+        truncateSpill(length);
+    }
+
+    // Cuts the spill file down to length bytes; 0 means no step is spilled
+    private void truncateSpill(long length) {
+        try {
+            spillFile.setLength(length);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        if (length == 0) {
+            spillStart = 0;
+        }
+    }
+
+    private void spillOut(Step s) {
+        try {
+            if (spillFile == null) {
+                spillPath = File.createTempFile("pennstagram-undo", ".bin");
+                spillPath.deleteOnExit();
+                spillFile = new RandomAccessFile(spillPath, "rw");
+            }
+            FileChannel ch = spillFile.getChannel();
+            ByteBuffer buf = ByteBuffer.allocate(4 * s.length).order(ByteOrder.LITTLE_ENDIAN);
+            buf.asIntBuffer().put(s.pixels, 0, s.length);
+            s.offset = ch.size();
+            ch.write(buf, s.offset);
+            s.pixels = null;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private int[] load(Step s) {
+        if (s.pixels != null) {
+            return s.pixels;
+        }
+        try {
+            ByteBuffer buf = ByteBuffer.allocate(4 * s.length).order(ByteOrder.LITTLE_ENDIAN);
+            FileChannel ch = spillFile.getChannel();
+            long pos = s.offset;
+            while (buf.hasRemaining()) {
+                int n = ch.read(buf, pos);
+                if (n < 0) {
+                    throw new IOException("undo spill file is truncated");
+                }
+                pos += n;
+            }
+            buf.flip();
+            int[] pixels = new int[s.length];
+            buf.asIntBuffer().get(pixels);
+            return pixels;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,166 @@
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The point-wise manipulations on SIMD registers, using the incubating
+ * Vector API. Compile and run with --add-modules jdk.incubator.vector; see
+ * PixelKernels for how this class is picked up.
+ *
+ * Each step handles as many pixels as the preferred vector of doubles has
+ * lanes. The packed pixels are loaded as ints, split into one vector per
+ * component, converted to doubles, and run through exactly the same
+ * arithmetic as the scalar PointOps, in the same order (there are no fused
+ * multiply-adds, so every intermediate result is rounded the same way).
+ * Pixels left over at the end of a range go through the scalar PointOps.
+ *
+ * The Vector API has no rounding operation, so round() reproduces
+ * Math.round from a truncating conversion; see there.
+ */
+class VectorKernels implements PixelKernels {
+
+    private static final VectorSpecies<Double> D = DoubleVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Long> L =
+        VectorSpecies.of(long.class, VectorShape.forBitSize(D.vectorBitSize()));
+    // ints with as many lanes as D, in half the bits
+    private static final VectorSpecies<Integer> I =
+        VectorSpecies.of(int.class, VectorShape.forBitSize(D.vectorBitSize() / 2));
+    private static final int LANES = D.length();
+
+    @Override
+    public void grayScaleLuminosity(int[] bmp, int start, int end) {
+        int i = start;
+        for (; i <= end - LANES; i += LANES) {
+            IntVector p = IntVector.fromArray(I, bmp, i);
+            DoubleVector r = toDouble(red(p));
+            DoubleVector g = toDouble(green(p));
+            DoubleVector b = toDouble(blue(p));
+            DoubleVector lum = r.mul(0.299).add(g.mul(0.587)).add(b.mul(0.114)).div(3.0);
+            IntVector avg = clip(round(lum));
+            pack(avg, avg, avg).intoArray(bmp, i);
+        }
+        tail(bmp, i, end, PointOps.grayScaleLuminosity());
+    }
+
+    @Override
+    public void grayScaleAverage(int[] bmp, int start, int end) {
+        int i = start;
+        for (; i <= end - LANES; i += LANES) {
+            IntVector p = IntVector.fromArray(I, bmp, i);
+            IntVector sum = red(p).add(green(p)).add(blue(p));
+            IntVector avg = clip(round(toDouble(sum).div(3.0)));
+            pack(avg, avg, avg).intoArray(bmp, i);
+        }
+        tail(bmp, i, end, PointOps.grayScaleAverage());
+    }
+
+    @Override
+    public void invertColors(int[] bmp, int start, int end) {
+        int i = start;
+        for (; i <= end - LANES; i += LANES) {
+            IntVector.fromArray(I, bmp, i).lanewise(VectorOperators.XOR, 0xffffff)
+                     .and(0xffffff).intoArray(bmp, i);
+        }
+        tail(bmp, i, end, PointOps.invertColors());
+    }
+
+    @Override
+    public void scaleColors(int[] bmp, int start, int end,
+                            double rfactor, double gfactor, double bfactor) {
+        int i = start;
+        for (; i <= end - LANES; i += LANES) {
+            IntVector p = IntVector.fromArray(I, bmp, i);
+            IntVector r = clip(round(toDouble(red(p)).mul(rfactor)));
+            IntVector g = clip(round(toDouble(green(p)).mul(gfactor)));
+            IntVector b = clip(round(toDouble(blue(p)).mul(bfactor)));
+            pack(r, g, b).intoArray(bmp, i);
+        }
+        tail(bmp, i, end, PointOps.scaleColors(rfactor, gfactor, bfactor));
+    }
+
+    @Override
+    public void contrast(int[] bmp, int start, int end, int avg, double multiplier) {
+        int i = start;
+        for (; i <= end - LANES; i += LANES) {
+            IntVector p = IntVector.fromArray(I, bmp, i);
+            IntVector r = clip(round(toDouble(red(p).sub(avg)).mul(multiplier)).add(avg));
+            IntVector g = clip(round(toDouble(green(p).sub(avg)).mul(multiplier)).add(avg));
+            IntVector b = clip(round(toDouble(blue(p).sub(avg)).mul(multiplier)).add(avg));
+            pack(r, g, b).intoArray(bmp, i);
+        }
+        tail(bmp, i, end, PointOps.contrast(avg, multiplier));
+    }
+
+    @Override
+    public void blend(int[] bmp, int[] other, int start, int end, double alpha) {
+        double beta = 1 - alpha;
+        int i = start;
+        for (; i <= end - LANES; i += LANES) {
+            IntVector p = IntVector.fromArray(I, bmp, i);
+            IntVector f = IntVector.fromArray(I, other, i);
+            IntVector r = clip(round(toDouble(red(p)).mul(alpha).add(toDouble(red(f)).mul(beta))));
+            IntVector g = clip(round(toDouble(green(p)).mul(alpha).add(toDouble(green(f)).mul(beta))));
+            IntVector b = clip(round(toDouble(blue(p)).mul(alpha).add(toDouble(blue(f)).mul(beta))));
+            pack(r, g, b).intoArray(bmp, i);
+        }
+        for (; i < end; i++) {
+            bmp[i] = PointOps.blend(alpha, bmp[i], other[i]);
+        }
+    }
+
+    private static void tail(int[] bmp, int start, int end, PointOp op) {
+        for (int i = start; i < end; i++) {
+            bmp[i] = op.apply(bmp[i], 0, 0, 0, 0);
+        }
+    }
+
+    private static IntVector red(IntVector p) {
+        return p.lanewise(VectorOperators.LSHR, 16).and(0xff);
+    }
+
+    private static IntVector green(IntVector p) {
+        return p.lanewise(VectorOperators.LSHR, 8).and(0xff);
+    }
+
+    private static IntVector blue(IntVector p) {
+        return p.and(0xff);
+    }
+
+    private static IntVector pack(IntVector r, IntVector g, IntVector b) {
+        return r.lanewise(VectorOperators.LSHL, 16)
+                .or(g.lanewise(VectorOperators.LSHL, 8))
+                .or(b);
+    }
+
+    private static DoubleVector toDouble(IntVector v) {
+        return (DoubleVector) v.convertShape(VectorOperators.I2D, D, 0);
+    }
+
+    // Clips components to [0, 255], like Pixel.rgb
+    private static IntVector clip(IntVector v) {
+        return v.max(0).min(255);
+    }
+
+    /*
+     * (int) Math.round(x) for every lane. Math.round(x) is floor(x + 0.5),
+     * but computing x + 0.5 in doubles can round up (for x just below 0.5),
+     * so instead we take f = floor(x) and add 1 when x - f, which is exact,
+     * is at least 0.5. floor comes from the conversion to long, which
+     * truncates towards zero: one less than that for negative non-integers.
+     * The conversions saturate and wrap exactly like the (long) inside
+     * Math.round and the (int) cast applied to its result.
+     */
+    private static IntVector round(DoubleVector x) {
+        DoubleVector f = (DoubleVector) x.convertShape(VectorOperators.D2L, L, 0)
+                                         .convertShape(VectorOperators.L2D, D, 0);
+        f = f.sub(1.0, f.compare(VectorOperators.GT, x));
+        VectorMask<Double> up = x.sub(f).compare(VectorOperators.GE, 0.5);
+        LongVector rounded = (LongVector) f.convertShape(VectorOperators.D2L, L, 0);
+        rounded = rounded.add(1L, up.cast(L));
+        return (IntVector) rounded.convertShape(VectorOperators.L2I, I, 0);
+    }
+}
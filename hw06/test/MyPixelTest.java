@@ -104,4 +104,32 @@ public class MyPixelTest {
     	Pixel pn = new Pixel(l);
     	assertEquals(true, p.equals(pn));
     }
+    
+    @Test
+    public void testOfSharesAndClips() {
+    	Pixel p = Pixel.of(260, -12, 500);
+    	assertEquals(new Pixel(255, 0, 255), p);
+    	assertSame(p, Pixel.of(255, 0, 255));
+    	assertSame(p, Pixel.fromRGB(0xff00ff));
+    }
+    
+    @Test
+    public void testFromRGBIgnoresHighBits() {
+    	Pixel p = Pixel.fromRGB(0xff102030);
+    	assertEquals("(16, 32, 48)", p.toString());
+    	assertEquals(0x102030, p.getRGB());
+    }
+    
+    @Test
+    public void testHashCode() {
+    	Pixel p = new Pixel(40, 50, 60);
+    	// 0 * 255 + 40 + 1 * 255 + 50 + 2 * 255 + 60
+    	assertEquals(915, p.hashCode());
+    	assertEquals(p.hashCode(), Pixel.of(40, 50, 60).hashCode());
+    }
+    
+    @Test
+    public void testNullComponents() {
+    	assertEquals(Pixel.BLACK, new Pixel((int[]) null));
+    }
 }
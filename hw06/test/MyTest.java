@@ -46,6 +46,143 @@ public class MyTest {
                         SimpleManipulations.rotateCCW(italy)));
     }
 
+    @Test
+    public void testMirrorHorizontal() {
+        assertEquals("Mirror horizontal", 0,
+                PixelPicture.diff(new PixelPicture(LOCATION + "ItalyMirrorHorizontal.png"),
+                        SimpleManipulations.mirrorHorizontal(italy)));
+    }
+
+    @Test
+    public void testMirrorVertical() {
+        assertEquals("Mirror vertical", 0,
+                PixelPicture.diff(new PixelPicture(LOCATION + "ItalyMirrorVertical.png"),
+                        SimpleManipulations.mirrorVertical(italy)));
+    }
+
+    @Test
+    public void testRotationsAcrossBlocks() {
+        // sides that are not multiples of the block, over several tiles
+        int w = RasterTransforms.BLOCK * 3 + 5;
+        int h = TileScheduler.TILE_PIXELS / RasterTransforms.BLOCK + 7;
+        int[] rgb = new int[w * h];
+        for (int i = 0; i < rgb.length; i++) {
+            rgb[i] = i * 0x10101 & 0xffffff;
+        }
+        PixelPicture p = new PixelPicture(w, h, rgb);
+        PixelPicture cw = SimpleManipulations.rotateCW(p);
+        PixelPicture ccw = SimpleManipulations.rotateCCW(p);
+        assertEquals(h, cw.getWidth());
+        assertEquals(w, cw.getHeight());
+        // the pixels as drawn, not looked up one by one through the view
+        int[] cwPixels = cw.getPixels();
+        int[] ccwPixels = ccw.getPixels();
+        for (int y = 0; y < h; y += 3) {
+            for (int x = 0; x < w; x++) {
+                assertEquals(rgb[y * w + x], cwPixels[x * h + h - 1 - y]);
+                assertEquals(rgb[y * w + x], ccwPixels[(w - 1 - x) * h + y]);
+            }
+        }
+        assertEquals(0, PixelPicture.diff(p, SimpleManipulations.rotateCW(
+                SimpleManipulations.rotateCW(SimpleManipulations.rotateCW(cw)))));
+        assertEquals(0, PixelPicture.diff(
+                SimpleManipulations.rotateCW(cw),
+                SimpleManipulations.mirrorVertical(SimpleManipulations.mirrorHorizontal(p))));
+    }
+
+    @Test
+    public void testViewsMatchCopies() {
+        int w = 37;
+        int h = 23;
+        int[] rgb = new int[w * h];
+        for (int i = 0; i < rgb.length; i++) {
+            rgb[i] = (i * 0x9e3779b1) & 0xffffff;
+        }
+        PixelPicture p = new PixelPicture(w, h, rgb);
+
+        PixelPicture view = SimpleManipulations.border(p, 3, Pixel.RED);
+        PixelPicture copy = copyBorder(p, 3, Pixel.RED);
+        view = SimpleManipulations.rotateCW(view);
+        copy = copyRotateCW(copy);
+        view = SimpleManipulations.crop(view, 1, 2, 20, 30);
+        copy = copyCrop(copy, 1, 2, 20, 30);
+        view = SimpleManipulations.border(view, 2, Pixel.BLUE);
+        copy = copyBorder(copy, 2, Pixel.BLUE);
+        view = SimpleManipulations.mirrorHorizontal(view);
+        copy = copyMirrorHorizontal(copy);
+        view = SimpleManipulations.rotateCCW(view);
+        copy = copyRotateCW(copyRotateCW(copyRotateCW(copy)));
+        // a corner that is all border
+        PixelPicture corner = SimpleManipulations.crop(view, 0, 0, 3, 3);
+
+        // nothing has been drawn: every step looks at p itself
+        assertTrue(view.lazyView() != null);
+        assertEquals(copy.getWidth(), view.getWidth());
+        assertEquals(copy.getHeight(), view.getHeight());
+        for (int y = 0; y < copy.getHeight(); y++) {
+            for (int x = 0; x < copy.getWidth(); x++) {
+                assertEquals(copy.getRGB(x, y), view.getRGB(x, y));
+            }
+        }
+        assertArrayEquals(copy.getPixels(), view.getPixels());
+        assertEquals(0, PixelPicture.diff(copy, view));
+        assertTrue(view.lazyView() == null);
+        assertEquals(0, PixelPicture.diff(copyCrop(copy, 0, 0, 3, 3), corner));
+
+        // turning a whole picture all the way around is the picture itself
+        assertTrue(p == SimpleManipulations.mirrorVertical(SimpleManipulations.rotateCW(
+                SimpleManipulations.rotateCW(SimpleManipulations.mirrorHorizontal(p)))));
+    }
+
+    // Eager versions of the view manipulations, one pixel at a time
+
+    private static PixelPicture copyBorder(PixelPicture p, int b, Pixel color) {
+        int w = p.getWidth() + 2 * b;
+        int h = p.getHeight() + 2 * b;
+        int[] out = new int[w * h];
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) {
+                boolean in = x >= b && y >= b && x < w - b && y < h - b;
+                out[y * w + x] = in ? p.getRGB(x - b, y - b) : color.getRGB();
+            }
+        }
+        return new PixelPicture(w, h, out);
+    }
+
+    private static PixelPicture copyRotateCW(PixelPicture p) {
+        int w = p.getWidth();
+        int h = p.getHeight();
+        int[] out = new int[w * h];
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) {
+                out[x * h + h - 1 - y] = p.getRGB(x, y);
+            }
+        }
+        return new PixelPicture(h, w, out);
+    }
+
+    private static PixelPicture copyMirrorHorizontal(PixelPicture p) {
+        int w = p.getWidth();
+        int h = p.getHeight();
+        int[] out = new int[w * h];
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) {
+                out[y * w + w - 1 - x] = p.getRGB(x, y);
+            }
+        }
+        return new PixelPicture(w, h, out);
+    }
+
+    private static PixelPicture copyCrop(PixelPicture p, int x0, int y0, int w, int h) {
+        int[] out = new int[w * h];
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) {
+                out[y * w + x] = p.getRGB(x0 + x, y0 + y);
+            }
+        }
+        return new PixelPicture(w, h, out);
+    }
+
     @Test
     public void testBorder() {
         assertEquals("Border", 0,
@@ -109,6 +246,13 @@ public class MyTest {
                 PixelPicture.diff(new PixelPicture(LOCATION + "ItalyBlur2.png"),
                         AdvancedManipulations.blur(italy,2)));
     }
+
+    @Test
+    public void testEmboss() {
+        assertEquals("Emboss", 0,
+                PixelPicture.diff(new PixelPicture(LOCATION + "ItalyEmboss.png"),
+                        AdvancedManipulations.emboss(italy)));
+    }
     
     
     @Test
@@ -121,6 +265,785 @@ public class MyTest {
     	assertEquals(bmp[200][100],bmp1[200][100]);
     	
     }
-    
+
+    @Test
+    public void testPackedPixelsMatchBitmap() {
+        Pixel[][] bmp = italy.getBitmap();
+        int[] rgb = italy.getPixels();
+        int w = italy.getWidth();
+        assertEquals(bmp[200][100].getRGB(), rgb[100 * w + 200]);
+        assertEquals(bmp[200][100].getRGB(), italy.getRGB(200, 100));
+        assertEquals("packed round trip", 0,
+                PixelPicture.diff(italy,
+                        new PixelPicture(w, italy.getHeight(), rgb)));
+    }
+
+    @Test
+    public void testBlurLargeRadiusMatchesDirectAverage() {
+        int radius = 7;
+        PixelPicture blurred = AdvancedManipulations.blur(italy, radius);
+        Pixel[][] src = italy.getBitmap();
+        int w = italy.getWidth();
+        int h = italy.getHeight();
+        int[][] points = { {0, 0}, {3, 470}, {320, 240}, {639, 479}, {635, 2} };
+        for (int[] pt : points) {
+            int r = 0, g = 0, b = 0, count = 0;
+            for (int x = Math.max(0, pt[0] - radius); x <= Math.min(w - 1, pt[0] + radius); x++) {
+                for (int y = Math.max(0, pt[1] - radius); y <= Math.min(h - 1, pt[1] + radius); y++) {
+                    r += src[x][y].getRed();
+                    g += src[x][y].getGreen();
+                    b += src[x][y].getBlue();
+                    count++;
+                }
+            }
+            Pixel expected = new Pixel((int) Math.round(r / (double) count),
+                    (int) Math.round(g / (double) count),
+                    (int) Math.round(b / (double) count));
+            assertEquals(expected.getRGB(), blurred.getRGB(pt[0], pt[1]));
+        }
+    }
+
+    @Test
+    public void testParallelMatchesSequential() {
+        int threads = TileScheduler.getParallelism();
+        try {
+            TileScheduler.setParallelism(1);
+            PixelPicture blur = AdvancedManipulations.blur(italy, 5);
+            PixelPicture contrast = AdvancedManipulations.adjustContrast(italy, 1.5);
+            PixelPicture vignette = SimpleManipulations.vignette(italy);
+            TileScheduler.setParallelism(4);
+            assertEquals(0, PixelPicture.diff(blur, AdvancedManipulations.blur(italy, 5)));
+            assertEquals(0, PixelPicture.diff(contrast,
+                    AdvancedManipulations.adjustContrast(italy, 1.5)));
+            assertEquals(0, PixelPicture.diff(vignette, SimpleManipulations.vignette(italy)));
+        } finally {
+            TileScheduler.setParallelism(threads);
+        }
+    }
+
+    @Test
+    public void testFusedEighteenNinetyMatchesChain() {
+        PixelPicture gray  = SimpleManipulations.grayScaleLuminosity(italy);
+        PixelPicture sepia = SimpleManipulations.scaleColors(gray, 1.0, 0.95, 0.75);
+        PixelPicture vign  = SimpleManipulations.vignette(sepia);
+        PixelPicture blend = SimpleManipulations.alphaBlend(0.5, sepia, vign);
+        PixelPicture chain = SimpleManipulations.scaleColors(blend, 1.1, 1.1, 1.1);
+        assertEquals(0, PixelPicture.diff(chain, Effects.eighteenNinety(italy)));
+    }
+
+    @Test
+    public void testPipelineContrastMatchesAdjustContrast() {
+        PixelPicture chain = AdvancedManipulations.adjustContrast(
+                SimpleManipulations.invertColors(italy), 1.4);
+        PixelPicture fused = new Pipeline()
+                .map(PointOps.invertColors())
+                .contrast(1.4)
+                .run(italy);
+        assertEquals(0, PixelPicture.diff(chain, fused));
+    }
+
+    @Test
+    public void testHistogramOrderMatchesColorMap() {
+        ColorMap m = new ColorMap();
+        ColorHistogram hist = new ColorHistogram();
+        int[] rgb = italy.getPixels();
+        for (int i = 0; i < 5000; i++) {
+            Pixel p = new Pixel((rgb[i] >> 16) & 0xff, (rgb[i] >> 8) & 0xff, rgb[i] & 0xff);
+            m.put(p, m.contains(p) ? m.getValue(p) + 1 : 1);
+            hist.add(rgb[i]);
+        }
+        Pixel[] sorted = m.getSortedPixels();
+        int[] top = hist.mostFrequent(20);
+        assertEquals(20, top.length);
+        for (int i = 0; i < top.length; i++) {
+            assertEquals(sorted[i].getRGB(), top[i]);
+        }
+    }
+
+    @Test
+    public void testHistogramKeepsColorsWithCountZero() {
+        // a flat array and a hash table holding the same counts
+        ColorHistogram flat = ColorHistogram.of(new int[ColorHistogram.DENSE_THRESHOLD]);
+        ColorHistogram hashed = new ColorHistogram();
+        hashed.put(0, ColorHistogram.DENSE_THRESHOLD);
+        for (ColorHistogram hist : new ColorHistogram[] { flat, hashed }) {
+            hist.put(0x123456, 0);
+            hist.put(0x0000ff, 3);
+            hist.put(0x0000ff, 0);
+            assertEquals(3, hist.size());
+            assertTrue(hist.contains(0x123456));
+            assertEquals(0, hist.get(0x0000ff));
+            assertArrayEquals(new int[] { 0, 0x123456, 0x0000ff }, hist.mostFrequent(5));
+        }
+    }
+
+    @Test
+    public void testReducePaletteWithMoreColorsThanPicture() {
+        PixelPicture p = new PixelPicture(new Pixel[][] {
+            {Pixel.BLACK, Pixel.BLUE},
+            {Pixel.RED,   Pixel.BLUE}
+        });
+        assertEquals(0, PixelPicture.diff(p, AdvancedManipulations.reducePalette(p, 10)));
+    }
+
+    @Test
+    public void testPaletteIndexMatchesLinearScan() {
+        int[] palette = { 0x000000, 0x0a0a0a, 0xffffff, 0x808080, 0x7f8081, 0xff0000 };
+        PaletteIndex index = new PaletteIndex(palette);
+        int[] rgb = italy.getPixels();
+        for (int i = 0; i < rgb.length; i += 97) {
+            Pixel p = new Pixel((rgb[i] >> 16) & 0xff, (rgb[i] >> 8) & 0xff, rgb[i] & 0xff);
+            int best = -1;
+            int dist = Integer.MAX_VALUE;
+            for (int v = 0; v < palette.length; v++) {
+                Pixel c = new Pixel((palette[v] >> 16) & 0xff, (palette[v] >> 8) & 0xff,
+                        palette[v] & 0xff);
+                if (p.distance(c) < dist) {
+                    dist = p.distance(c);
+                    best = v;
+                }
+            }
+            assertEquals(best, index.nearestIndex(rgb[i]));
+        }
+    }
+
+    @Test
+    public void testFloodFillsOnlyConnectedRegion() {
+        Pixel W = Pixel.WHITE;
+        Pixel K = Pixel.BLACK;
+        // bmp[x][y]: a white region shaped like a U around a black column,
+        // plus a white pixel at (4, 0) that is not connected to it
+        PixelPicture p = new PixelPicture(new Pixel[][] {
+            {W, W, W},
+            {K, K, W},
+            {W, W, W},
+            {K, K, K},
+            {W, K, K}
+        });
+        PixelPicture flooded = AdvancedManipulations.flood(p, Pixel.RED, 0, 0);
+        Pixel R = Pixel.RED;
+        assertEquals(0, PixelPicture.diff(flooded, new PixelPicture(new Pixel[][] {
+            {R, R, R},
+            {K, K, R},
+            {R, R, R},
+            {K, K, K},
+            {W, K, K}
+        })));
+        assertEquals(0, PixelPicture.diff(p, AdvancedManipulations.flood(p, Pixel.RED, 9, 9)));
+    }
+
+    @Test
+    public void testRawSaveAndLoad() throws java.io.IOException {
+        java.io.File f = java.io.File.createTempFile("italy", ".raw");
+        try {
+            italy.save(f.getPath());
+            PixelPicture loaded = new PixelPicture(f.getPath());
+            assertEquals(italy.getWidth(), loaded.getWidth());
+            assertEquals(italy.getHeight(), loaded.getHeight());
+            assertEquals(0, PixelPicture.diff(italy, loaded));
+            // the file holds 0xRRGGBB, whatever the top byte was in memory
+            for (int rgb : loaded.data()) {
+                assertEquals(0, rgb >>> 24);
+            }
+        } finally {
+            f.delete();
+        }
+    }
+
+    @Test
+    public void testStripedBlurMatchesWholePicture() throws java.io.IOException {
+        java.io.File in = java.io.File.createTempFile("italy", ".raw");
+        java.io.File out = java.io.File.createTempFile("italyBlur", ".raw");
+        try {
+            StripedPicture striped = StripedPicture.of(italy, in.getPath());
+            // a budget of about 40 rows per strip
+            StripedPicture blurred = striped.apply(p -> AdvancedManipulations.blur(p, 3), 3,
+                    out.getPath(), 40L * 4 * 3 * italy.getWidth());
+            assertEquals(0, PixelPicture.diff(AdvancedManipulations.blur(italy, 3),
+                    blurred.toPixelPicture()));
+        } finally {
+            in.delete();
+            out.delete();
+        }
+    }
+
+    @Test
+    public void testUndoHistoryRestoresPictures() {
+        PixelPicture flooded = AdvancedManipulations.flood(italy, Pixel.RED, 0, 0);
+        PixelPicture rotated = SimpleManipulations.rotateCW(flooded);
+        PixelPicture inverted = SimpleManipulations.invertColors(rotated);
+
+        // a tiny budget with spilling forces the older steps out to disk
+        UndoHistory history = new UndoHistory(1, true);
+        history.push(italy, flooded);
+        history.push(flooded, rotated);
+        history.push(rotated, inverted);
+        assertEquals(3, history.size());
+
+        PixelPicture p = history.undo(inverted);
+        assertEquals(0, PixelPicture.diff(rotated, p));
+        p = history.undo(p);
+        assertEquals(0, PixelPicture.diff(flooded, p));
+        p = history.undo(p);
+        assertEquals(0, PixelPicture.diff(italy, p));
+        assertTrue(history.isEmpty());
+        history.clear();
+    }
+
+    @Test
+    public void testUndoHistoryFreesSpilledSteps() {
+        PixelPicture a = SimpleManipulations.invertColors(italy);
+        PixelPicture[] pics = { italy, a, italy, a, italy, a };
+        long picture = 4L * italy.getWidth() * italy.getHeight();
+
+        // room on disk for two whole pictures
+        UndoHistory history = new UndoHistory(1, true, 2 * picture);
+        for (int i = 1; i < pics.length; i++) {
+            history.push(pics[i - 1], pics[i]);
+            assertTrue(history.diskUsed() <= 2 * picture);
+        }
+        assertEquals(3, history.size());
+        assertEquals(2 * picture, history.diskUsed());
+
+        PixelPicture p = pics[pics.length - 1];
+        for (int i = pics.length - 2; !history.isEmpty(); i--) {
+            p = history.undo(p);
+            assertEquals(0, PixelPicture.diff(pics[i], p));
+        }
+        assertEquals(0, history.diskUsed());
+        history.clear();
+    }
+
+    @Test
+    public void testUndoStepsWorkedOutAheadOfPushing() {
+        int w = 130;
+        int h = 70;
+        int[] rgb = new int[w * h];
+        java.util.Random rnd = new java.util.Random(11);
+        for (int i = 0; i < rgb.length; i++) {
+            rgb[i] = rnd.nextInt(1 << 24);
+        }
+        PixelPicture before = new PixelPicture(w, h, rgb);
+        rgb[rgb.length - 1] ^= 0xffffff;
+        PixelPicture after = new PixelPicture(w, h, rgb);
+
+        UndoHistory history = new UndoHistory(Long.MAX_VALUE, false);
+        UndoHistory.Step step = UndoHistory.diff(before, after);
+        assertTrue(history.isEmpty());
+        history.makeRoom(step);
+        history.push(step);
+        // only the corner tile, 2 x 6 pixels, is kept
+        assertEquals(4 * (2 * 6 + 4), history.memoryUsed());
+        assertEquals(0, PixelPicture.diff(before, history.undo(after)));
+    }
+
+    @Test
+    public void testUndoHistoryKeepsOnlyChangedTiles() {
+        PixelPicture flooded = AdvancedManipulations.flood(italy, Pixel.RED, 0, 0);
+        UndoHistory history = new UndoHistory(Long.MAX_VALUE, false);
+        history.push(italy, flooded);
+        assertTrue(history.memoryUsed() < 4L * italy.getWidth() * italy.getHeight());
+    }
+
+    @Test
+    public void testMonitoredFilterReportsProgressAndCancels() {
+        final int[] last = new int[1];
+        TileScheduler.Monitor watch = new TileScheduler.Monitor() {
+            public boolean isCancelled() { return false; }
+            public synchronized void progress(int done, int total) {
+                last[0] = Math.max(last[0], 100 * done / total);
+            }
+        };
+        PixelPicture blurred = TileScheduler.monitored(watch,
+                () -> AdvancedManipulations.blur(italy, 2));
+        assertEquals(0, PixelPicture.diff(AdvancedManipulations.blur(italy, 2), blurred));
+        assertEquals(100, last[0]);
+
+        TileScheduler.Monitor cancelled = new TileScheduler.Monitor() {
+            public boolean isCancelled() { return true; }
+            public void progress(int done, int total) { }
+        };
+        try {
+            TileScheduler.monitored(cancelled, () -> SimpleManipulations.invertColors(italy));
+            fail("expected the filter to be cancelled");
+        } catch (java.util.concurrent.CancellationException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testMipCacheHalvesPictures() {
+        PixelPicture pic = new PixelPicture(3, 3, new int[] {
+            0x000000, 0x040404, 0x080808,
+            0x0c0c0c, 0x101010, 0x141414,
+            0x181818, 0x1c1c1c, 0x202020 });
+        MipCache mips = new MipCache(pic);
+        PixelPicture half = mips.getLevel(1);
+        assertEquals(2, half.getWidth());
+        assertEquals(2, half.getHeight());
+        // (0 + 4 + 12 + 16) / 4 = 8; odd edges average what exists
+        assertArrayEquals(new int[] { 0x080808, 0x0e0e0e, 0x1a1a1a, 0x202020 },
+                half.getPixels());
+        assertEquals(1, mips.getLevel(2).getWidth());
+        assertSame(mips.getLevel(2), mips.getLevel(5));
+
+        MipCache italyMips = new MipCache(italy);
+        assertSame(italy, italyMips.proxy((long) italy.getWidth() * italy.getHeight()));
+        PixelPicture proxy = italyMips.proxy(italy.getWidth() * italy.getHeight() / 4);
+        assertEquals((italy.getWidth() + 1) / 2, proxy.getWidth());
+    }
+
+    @Test
+    public void testBatchChainMatchesManipulations() {
+        PixelPicture expected = SimpleManipulations.border(
+                AdvancedManipulations.adjustContrast(
+                        SimpleManipulations.invertColors(
+                                AdvancedManipulations.blur(italy, 2)), 1.5),
+                10, Pixel.BLACK);
+        assertEquals(0, PixelPicture.diff(expected,
+                Batch.parse("blur:2, invert,contrast:1.5,border:10").apply(italy)));
+        assertEquals(0, PixelPicture.diff(Effects.zombie(italy),
+                Batch.parse("Zombie").apply(italy)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBatchRejectsBadSteps() {
+        Batch.parse("blur:two");
+    }
+
+    @Test
+    public void testBatchKeepsInputsWithTheSameName() throws java.io.IOException {
+        java.nio.file.Path dir = java.nio.file.Files.createTempDirectory("batch");
+        java.io.File a = new java.io.File(dir.toFile(), "a/x.png");
+        java.io.File b = new java.io.File(dir.toFile(), "b/x.png");
+        java.io.File c = new java.io.File(dir.toFile(), "b/x.jpg");
+        for (java.io.File f : new java.io.File[] { a, b, c }) {
+            f.getParentFile().mkdirs();
+            f.createNewFile();
+            f.deleteOnExit();
+        }
+        java.io.File out = new java.io.File(dir.toFile(), "out");
+
+        java.util.List<Batch.Job> jobs = Batch.jobs(Batch.expand(dir + "/**.png"), out, null);
+        assertEquals(2, jobs.size());
+        assertEquals(new java.io.File(out, "a/x.png"), jobs.get(0).out);
+        assertEquals(new java.io.File(out, "b/x.png"), jobs.get(1).out);
+
+        java.util.List<Batch.Input> inputs = Batch.expand(a.getPath());
+        inputs.addAll(Batch.expand(b.getPath()));
+        try {
+            Batch.jobs(inputs, out, null);
+            fail("a/x.png and b/x.png were both written to x.png");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            Batch.jobs(Batch.expand(dir + "/b/*"), out, "png");
+            fail("x.png and x.jpg were both written to x.png");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void testSummedAreaTableMatchesDirectSums() {
+        int w = 37;
+        int h = 23;
+        int[] rgb = new int[w * h];
+        java.util.Random rnd = new java.util.Random(16);
+        for (int i = 0; i < rgb.length; i++) {
+            rgb[i] = rnd.nextInt(1 << 24);
+        }
+        SummedAreaTable sat = new PixelPicture(w, h, rgb).getSummedAreaTable();
+
+        for (int k = 0; k < 200; k++) {
+            int x0 = rnd.nextInt(w);
+            int y0 = rnd.nextInt(h);
+            int x1 = x0 + 1 + rnd.nextInt(w - x0);
+            int y1 = y0 + 1 + rnd.nextInt(h - y0);
+            for (int c = 0; c < 3; c++) {
+                int shift = 16 - 8 * c;
+                long sum = 0;
+                long squares = 0;
+                for (int y = y0; y < y1; y++) {
+                    for (int x = x0; x < x1; x++) {
+                        int v = (rgb[y * w + x] >> shift) & 0xff;
+                        sum += v;
+                        squares += v * v;
+                    }
+                }
+                double n = (x1 - x0) * (y1 - y0);
+                assertEquals(sum, sat.sum(c, x0, y0, x1, y1));
+                assertEquals(sum / n, sat.mean(c, x0, y0, x1, y1), 1e-9);
+                assertEquals(squares / n - (sum / n) * (sum / n),
+                             sat.variance(c, x0, y0, x1, y1), 1e-6);
+            }
+        }
+    }
+
+    @Test
+    public void testContrastWithSummedAreaTable() {
+        PixelPicture copy = new PixelPicture(italy);
+        copy.getSummedAreaTable();
+        assertEquals(0, PixelPicture.diff(AdvancedManipulations.adjustContrast(italy, 2.0),
+                AdvancedManipulations.adjustContrast(copy, 2.0)));
+    }
+
+    @Test
+    public void testLocalContrast() {
+        int w = 23;
+        int h = 17;
+        int[] rgb = new int[w * h];
+        java.util.Random rnd = new java.util.Random(5);
+        for (int i = 0; i < rgb.length; i++) {
+            rgb[i] = rnd.nextInt(1 << 24);
+        }
+        PixelPicture p = new PixelPicture(w, h, rgb);
+        int r = 3;
+        PixelPicture local = AdvancedManipulations.localContrast(p, r, 1.7);
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) {
+                int expected = 0;
+                for (int shift = 16; shift >= 0; shift -= 8) {
+                    double sum = 0;
+                    int n = 0;
+                    for (int yy = Math.max(0, y - r); yy < Math.min(h, y + r + 1); yy++) {
+                        for (int xx = Math.max(0, x - r); xx < Math.min(w, x + r + 1); xx++) {
+                            sum += (rgb[yy * w + xx] >> shift) & 0xff;
+                            n++;
+                        }
+                    }
+                    double mean = sum / n;
+                    int c = (int) Math.round((((rgb[y * w + x] >> shift) & 0xff) - mean) * 1.7
+                                             + mean);
+                    expected |= Math.min(Math.max(0, c), 255) << shift;
+                }
+                assertEquals(expected, local.getRGB(x, y));
+            }
+        }
+        // the table built for it is there for adjustContrast
+        assertNotNull(p.cachedSummedAreaTable());
+        assertEquals(0, PixelPicture.diff(p, AdvancedManipulations.localContrast(p, 5, 1.0)));
+    }
+
+    @Test
+    public void testImageDiff() {
+        PixelPicture inverted = SimpleManipulations.invertColors(italy);
+        int w = italy.getWidth();
+        int h = italy.getHeight();
+        int[] a = italy.getPixels();
+        int[] b = inverted.getPixels();
+        long expected = 0;
+        long left = 0;
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) {
+                int d = Pixel.fromRGB(a[y * w + x]).distance(Pixel.fromRGB(b[y * w + x]));
+                expected += d;
+                if (x < w / 2) {
+                    left += d;
+                }
+            }
+        }
+        assertEquals(expected, ImageDiff.total(italy, inverted));
+        assertEquals(left, ImageDiff.total(italy, inverted, 0, 0, w / 2, h));
+        assertEquals(0, ImageDiff.total(italy, new PixelPicture(italy)));
+        assertEquals(Long.MAX_VALUE, ImageDiff.total(italy, SimpleManipulations.rotateCW(italy)));
+
+        assertTrue(ImageDiff.within(italy, inverted, expected));
+        assertFalse(ImageDiff.within(italy, inverted, expected - 1));
+        assertTrue(ImageDiff.within(italy, italy, 0));
+
+        long[] tiles = ImageDiff.tiles(italy, inverted, 64);
+        assertEquals(((w + 63) / 64) * ((h + 63) / 64), tiles.length);
+        long sum = 0;
+        for (long t : tiles) {
+            sum += t;
+        }
+        assertEquals(expected, sum);
+    }
+
+    @Test
+    public void testImageDiffDoesNotOverflow() {
+        // 4 million pixels that differ by 3 * 255 overflow an int total
+        int[] white = new int[2000 * 2000];
+        java.util.Arrays.fill(white, 0xffffff);
+        PixelPicture black = new PixelPicture(2000, 2000, new int[white.length]);
+        PixelPicture p = new PixelPicture(2000, 2000, white);
+        assertEquals((long) ImageDiff.MAX_PIXEL_DIFF * white.length, ImageDiff.total(black, p));
+        assertEquals(Integer.MAX_VALUE, PixelPicture.diff(black, p));
+
+        PixelPicture heat = ImageDiff.heatmap(black, p, 300);
+        assertEquals(7, heat.getWidth());
+        assertEquals(7, heat.getHeight());
+        assertEquals(0xffffff, heat.getRGB(6, 6));
+    }
+
+    @Test
+    public void testCopiesShareThePicture() {
+        PixelPicture p = SimpleManipulations.invertColors(italy);
+        SummedAreaTable t = p.getSummedAreaTable();
+        PixelPicture copy = new PixelPicture(p);
+        assertEquals(0, PixelPicture.diff(p, copy));
+        assertSame(t, copy.cachedSummedAreaTable());
+
+        java.awt.image.BufferedImage icon =
+            (java.awt.image.BufferedImage) copy.toImageIcon().getImage();
+        assertEquals(p.getWidth(), icon.getWidth());
+        assertEquals(p.getRGB(17, 5), icon.getRGB(17, 5) & 0xffffff);
+
+        // the undo history keeps whole pictures by reference; undo must
+        // still give back the same pixels
+        UndoHistory h = new UndoHistory(1 << 20, false);
+        PixelPicture rotated = SimpleManipulations.rotateCW(p);
+        h.push(p, rotated);
+        assertEquals(0, PixelPicture.diff(p, h.undo(rotated)));
+    }
+
+    @Test
+    public void testChannelLutsCompose() {
+        PointOp scale = PointOps.scaleColors(1.3, 0.6, 2.0);
+        PointOp invert = PointOps.invertColors();
+        PointOp contrast = PointOps.contrast(97, 2.5);
+        PointOp gray = PointOps.grayScaleLuminosity();
+        assertNotNull(ChannelLut.from(scale.then(invert).then(contrast)));
+        assertNull(ChannelLut.from(gray.then(scale)));
+
+        PointOp[][] chains = {
+            { scale, invert, contrast },
+            { gray, scale, invert },
+            { invert, gray, contrast, scale },
+        };
+        int[] rgb = italy.getPixels();
+        for (PointOp[] chain : chains) {
+            PointOp fused = chain[0];
+            for (int k = 1; k < chain.length; k++) {
+                fused = fused.then(chain[k]);
+            }
+            for (int i = 0; i < rgb.length; i += 7) {
+                int expected = rgb[i];
+                for (PointOp op : chain) {
+                    expected = op.apply(expected, 0, 0, 1, 1);
+                }
+                assertEquals(expected, fused.apply(rgb[i], 0, 0, 1, 1));
+            }
+        }
+    }
+
+    @Test
+    public void testQuantizersKeepPaletteSize() {
+        int[] rgb = italy.getPixels();
+        Quantizer[] qs = { new OctreeQuantizer(rgb, 64), new MedianCutQuantizer(rgb, 64),
+                           new OctreeQuantizer(rgb, 64, 100) };
+        for (Quantizer q : qs) {
+            int[] palette = q.getPalette();
+            assertTrue(palette.length > 0 && palette.length <= 64);
+            java.util.Set<Integer> colors = new java.util.HashSet<Integer>();
+            for (int c : palette) {
+                colors.add(c);
+            }
+            int[] mapped = rgb.clone();
+            q.mapAll(mapped);
+            for (int i = 0; i < rgb.length; i += 13) {
+                assertTrue(colors.contains(mapped[i]));
+                assertEquals(mapped[i], q.map(rgb[i]));
+            }
+            // colors that are not in the picture still get a palette color
+            assertTrue(colors.contains(q.map(0x123456)));
+        }
+
+        // the spread-out palettes are much closer to the picture than the
+        // most frequent colors
+        long frequency = ImageDiff.total(italy,
+                AdvancedManipulations.reducePalette(italy, 16, PaletteStrategy.FREQUENCY));
+        for (PaletteStrategy s : new PaletteStrategy[] { PaletteStrategy.OCTREE,
+                                                         PaletteStrategy.MEDIAN_CUT }) {
+            assertTrue(s.toString(), 2 * ImageDiff.total(italy,
+                    AdvancedManipulations.reducePalette(italy, 16, s)) < frequency);
+        }
+    }
+
+    @Test
+    public void testOctreeKeepsFewColors() {
+        int[] rgb = new int[1000];
+        for (int i = 0; i < rgb.length; i++) {
+            rgb[i] = (i % 7) * 0x251307;
+        }
+        PixelPicture p = new PixelPicture(100, 10, rgb);
+        assertEquals(0, PixelPicture.diff(p,
+                AdvancedManipulations.reducePalette(p, 7, PaletteStrategy.OCTREE)));
+        assertEquals(PaletteStrategy.MEDIAN_CUT, PaletteStrategy.parse("median-cut"));
+    }
+
+    @Test
+    public void testConvolutionMethodsAgree() {
+        assertTrue(ConvolutionKernel.gaussian(2).isSeparable());
+        assertTrue(ConvolutionKernel.sobelY().isSeparable());
+        assertFalse(ConvolutionKernel.sharpen().isSeparable());
+
+        // a 15x15 ring, which is not separable and goes through the FFT
+        double[] ring = new double[15 * 15];
+        for (int y = 0; y < 15; y++) {
+            for (int x = 0; x < 15; x++) {
+                int d = (x - 7) * (x - 7) + (y - 7) * (y - 7);
+                ring[y * 15 + x] = d >= 25 && d <= 49 ? 1.0 / 100 : 0;
+            }
+        }
+        ConvolutionKernel big = new ConvolutionKernel(15, 15, ring);
+        assertFalse(big.isSeparable());
+        assertEquals(Convolution.Method.FFT,
+                     Convolution.methodFor(big, Convolution.Edge.CLAMP));
+
+        ConvolutionKernel gauss = ConvolutionKernel.gaussian(2);
+        for (ConvolutionKernel k : new ConvolutionKernel[] { gauss, big }) {
+            PixelPicture direct = Convolution.convolve(italy, k, Convolution.Edge.CLAMP,
+                                                       Convolution.Method.DIRECT);
+            Convolution.Method[] others = k.isSeparable()
+                    ? new Convolution.Method[] { Convolution.Method.SEPARABLE,
+                                                 Convolution.Method.FFT }
+                    : new Convolution.Method[] { Convolution.Method.FFT };
+            for (Convolution.Method m : others) {
+                PixelPicture other = Convolution.convolve(italy, k, Convolution.Edge.CLAMP, m);
+                int[] a = direct.getPixels();
+                int[] b = other.getPixels();
+                for (int i = 0; i < a.length; i++) {
+                    for (int shift = 0; shift <= 16; shift += 8) {
+                        int d = ((a[i] >> shift) & 0xff) - ((b[i] >> shift) & 0xff);
+                        assertTrue(m + " at " + i, Math.abs(d) <= 1);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testContentHash() {
+        long h = italy.getContentHash();
+        assertEquals(h, new PixelPicture(italy.getWidth(), italy.getHeight(),
+                                         italy.getPixels()).getContentHash());
+        assertEquals(h, new PixelPicture(italy).knownContentHash().longValue());
+        // a view hashes like its pixels
+        PixelPicture turned = SimpleManipulations.rotateCW(italy);
+        assertEquals(new PixelPicture(turned.getHeight(), turned.getWidth(),
+                                      SimpleManipulations.rotateCCW(turned).getPixels())
+                         .getContentHash(), h);
+        assertTrue(turned.getContentHash() != h);
+
+        // one changed pixel, or the same pixels in another shape, change it
+        int[] rgb = italy.getPixels();
+        rgb[12345] ^= 1;
+        assertTrue(new PixelPicture(italy.getWidth(), italy.getHeight(), rgb)
+                       .getContentHash() != h);
+        assertTrue(new PixelPicture(italy.getHeight(), italy.getWidth(),
+                                    italy.getPixels()).getContentHash() != h);
+    }
+
+    @Test
+    public void testUndoKeepsContentHash() {
+        PixelPicture flooded = AdvancedManipulations.flood(italy, Pixel.RED, 10, 10);
+        PixelPicture inverted = SimpleManipulations.invertColors(flooded);
+
+        // the hash of the old picture is known when the change is pushed
+        UndoHistory history = new UndoHistory(1L << 30, false);
+        flooded.getContentHash();
+        history.push(flooded, inverted);
+        PixelPicture back = history.undo(inverted);
+        assertEquals(flooded.getContentHash(), back.knownContentHash().longValue());
+
+        // only the hash of the new one is known: updated tile by tile
+        PixelPicture small = AdvancedManipulations.flood(flooded, Pixel.BLUE, 10, 10);
+        history.push(new PixelPicture(flooded.getWidth(), flooded.getHeight(),
+                                      flooded.getPixels()), small);
+        small.getContentHash();
+        back = history.undo(small);
+        assertEquals(flooded.getContentHash(), back.knownContentHash().longValue());
+    }
+
+    @Test
+    public void testResultCache() {
+        int[] runs = new int[1];
+        java.util.function.UnaryOperator<PixelPicture> invert = pic -> {
+            runs[0]++;
+            return SimpleManipulations.invertColors(pic);
+        };
+        int bytes = 4 * italy.getWidth() * italy.getHeight();
+        ResultCache cache = new ResultCache(2L * bytes);
+
+        PixelPicture first = cache.apply(italy, "invert", invert);
+        // a different picture with the same pixels finds the same result
+        PixelPicture same = new PixelPicture(italy.getWidth(), italy.getHeight(),
+                                             italy.getPixels());
+        assertTrue(first == cache.apply(same, "invert", invert));
+        assertEquals(1, runs[0]);
+        assertEquals(1, cache.hits());
+
+        // other keys and other pictures miss; the least recently used
+        // result goes once the budget is full
+        cache.apply(italy, "invert again", invert);
+        cache.apply(first, "invert", invert);
+        assertEquals(3, runs[0]);
+        assertEquals(2, cache.size());
+        assertEquals(2L * bytes, cache.memoryUsed());
+        assertNull(cache.get(italy, "invert"));
+        assertTrue(cache.get(first, "invert") != null);
+
+        // too big for the budget: computed, never kept
+        ResultCache tiny = new ResultCache(bytes - 1);
+        tiny.apply(italy, "invert", invert);
+        assertEquals(0, tiny.size());
+        cache.clear();
+        assertEquals(0, cache.memoryUsed());
+    }
+
+    @Test
+    public void testVectorKernelsRoundLikeScalar() {
+        PixelKernels k = PixelKernels.vector();
+        if (k == null) {
+            return; // not compiled or no jdk.incubator.vector; nothing to compare
+        }
+        java.util.Random rnd = new java.util.Random(17);
+        int n = 1000 + 7; // not a multiple of any vector length
+        int[] rgb = new int[n];
+        int[] other = new int[n];
+        for (int i = 0; i < n; i++) {
+            rgb[i] = rnd.nextInt(1 << 24);
+            other[i] = rnd.nextInt(1 << 24);
+        }
+        // factors that land exactly on .5, just below it, negative, huge
+        double[] factors = { 0.5, 1.5, 0.49999999999999994, 1.0 / 3, 2.2, -0.7,
+                             0.0, 1e10, 3e9 / 255, 255.0 };
+
+        assertKernel(rgb, PointOps.grayScaleLuminosity(),
+                     (bmp) -> k.grayScaleLuminosity(bmp, 0, n));
+        assertKernel(rgb, PointOps.grayScaleAverage(),
+                     (bmp) -> k.grayScaleAverage(bmp, 0, n));
+        assertKernel(rgb, PointOps.invertColors(),
+                     (bmp) -> k.invertColors(bmp, 0, n));
+        for (double f : factors) {
+            assertKernel(rgb, PointOps.scaleColors(f, 1 - f, f / 2),
+                         (bmp) -> k.scaleColors(bmp, 0, n, f, 1 - f, f / 2));
+            for (int avg : new int[] { 0, 97, 128, 255 }) {
+                assertKernel(rgb, PointOps.contrast(avg, f),
+                             (bmp) -> k.contrast(bmp, 0, n, avg, f));
+            }
+            if (f >= 0 && f <= 1) {
+                int[] expected = new int[n];
+                for (int i = 0; i < n; i++) {
+                    expected[i] = PointOps.blend(f, rgb[i], other[i]);
+                }
+                int[] actual = rgb.clone();
+                k.blend(actual, other, 0, n, f);
+                assertArrayEquals("blend " + f, expected, actual);
+            }
+        }
+    }
+
+    private static void assertKernel(int[] rgb, PointOp op,
+                                     java.util.function.Consumer<int[]> kernel) {
+        int[] expected = new int[rgb.length];
+        for (int i = 0; i < rgb.length; i++) {
+            expected[i] = op.apply(rgb[i], 0, 0, 0, 0);
+        }
+        int[] actual = rgb.clone();
+        kernel.accept(actual);
+        assertArrayEquals(expected, actual);
+    }
 
 }